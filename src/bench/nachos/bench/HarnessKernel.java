@@ -0,0 +1,41 @@
+package nachos.bench;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+/**
+ * The kernel booted by <tt>NachosHarness</tt>. Its main thread serves batches
+ * of work handed over by benchmark threads outside Nachos, one at a time,
+ * and never terminates: the harness boots Nachos on daemon threads, so the
+ * JVM can exit with the kernel still waiting for work.
+ */
+public class HarnessKernel extends ThreadedKernel {
+    /**
+     * Allocate a new harness kernel.
+     */
+    public HarnessKernel() {
+        super();
+    }
+
+    /**
+     * The harness measures the primitives itself, so this kernel runs no self
+     * tests.
+     */
+    public void selfTest() {
+    }
+
+    /**
+     * Run batches handed over by <tt>NachosHarness.run()</tt>, forever. While
+     * waiting for the next batch the whole simulation is stopped, since no
+     * other Nachos thread can run.
+     */
+    public void run() {
+        NachosHarness.booted();
+
+        while (true) {
+            NachosHarness.Batch batch = NachosHarness.nextBatch();
+            batch.workload.run(batch.operations);
+            batch.finish();
+        }
+    }
+}
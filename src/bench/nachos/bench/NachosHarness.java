@@ -0,0 +1,349 @@
+package nachos.bench;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.SynchronousQueue;
+
+/**
+ * Runs batches of synchronization operations on a Nachos machine booted
+ * inside the calling JVM, so that benchmarks can time them from outside.
+ *
+ * <p>
+ * <tt>boot()</tt> starts Nachos with <tt>HarnessKernel</tt> on a daemon
+ * thread; every Nachos thread inherits that, so the JVM can exit without
+ * halting the machine. <tt>run()</tt> then hands a <tt>Workload</tt> to the
+ * kernel's main thread and waits for it to finish, which takes a few
+ * microseconds on top of the batch itself; batches should be large enough to
+ * make that negligible. Each operation involves at least one handoff between
+ * two Nachos threads, so the time per operation includes the TCB context
+ * switches under it.
+ *
+ * <p>
+ * Nachos can only be booted once per JVM. Threads outside Nachos are not
+ * restricted by <tt>NachosSecurityManager</tt>, so the harness and its
+ * caller are unaffected by it.
+ */
+public final class NachosHarness {
+    private NachosHarness() {
+    }
+
+    /**
+     * The operations that can be timed. Each runs on the kernel's main
+     * thread, with one partner thread where a handoff needs two.
+     */
+    public enum Workload {
+        /**
+         * <tt>KThread.yield()</tt> to a partner that yields straight back:
+         * one bare context switch, with nothing else in the ready queue.
+         */
+        SWITCH {
+            void run(int operations) {
+                KThread partner = fork(operations / 2, new Operation() {
+                    public void run() {
+                        KThread.yield();
+                    }
+                });
+
+                for (int i = 0; i < operations - operations / 2; i++)
+                    KThread.yield();
+                partner.join();
+            }
+        },
+
+        /** <tt>V()</tt> then <tt>P()</tt>, ping-ponging with a partner. */
+        SEMAPHORE {
+            void run(int operations) {
+                final Semaphore ping = new Semaphore(0);
+                final Semaphore pong = new Semaphore(0);
+                KThread partner = fork(operations, new Operation() {
+                    public void run() {
+                        ping.P();
+                        pong.V();
+                    }
+                });
+
+                for (int i = 0; i < operations; i++) {
+                    ping.V();
+                    pong.P();
+                }
+                partner.join();
+            }
+        },
+
+        /**
+         * <tt>acquire()</tt>, a yield, and <tt>release()</tt>, with a
+         * partner contending for the same lock, so that every acquisition
+         * waits for the other thread to release.
+         */
+        LOCK {
+            void run(int operations) {
+                final Lock lock = new Lock();
+                Operation operation = new Operation() {
+                    public void run() {
+                        lock.acquire();
+                        KThread.yield();
+                        lock.release();
+                    }
+                };
+                KThread partner = fork(operations / 2, operation);
+
+                for (int i = operations / 2; i < operations; i++)
+                    operation.run();
+                partner.join();
+            }
+        },
+
+        /** <tt>wake()</tt> then <tt>sleep()</tt>, taking turns with a partner. */
+        CONDITION {
+            void run(final int operations) {
+                final Lock lock = new Lock();
+                final Condition2 condition = new Condition2(lock);
+                final boolean[] partnersTurn = new boolean[1];
+
+                KThread partner = new KThread(new Runnable() {
+                    public void run() {
+                        lock.acquire();
+                        for (int i = 0; i < operations; i++) {
+                            while (!partnersTurn[0])
+                                condition.sleep();
+                            partnersTurn[0] = false;
+                            condition.wake();
+                        }
+                        lock.release();
+                    }
+                });
+                partner.fork();
+
+                lock.acquire();
+                for (int i = 0; i < operations; i++) {
+                    partnersTurn[0] = true;
+                    condition.wake();
+                    while (partnersTurn[0])
+                        condition.sleep();
+                }
+                lock.release();
+                partner.join();
+            }
+        },
+
+        /** <tt>speak()</tt>, with a partner listening. */
+        COMMUNICATOR {
+            void run(int operations) {
+                final Communicator communicator = new Communicator();
+                KThread partner = fork(operations, new Operation() {
+                    public void run() {
+                        communicator.listen();
+                    }
+                });
+
+                for (int i = 0; i < operations; i++)
+                    communicator.speak(i);
+                partner.join();
+            }
+        },
+
+        /** <tt>add()</tt>, with a partner calling <tt>removeFirst()</tt>. */
+        SYNCHLIST {
+            void run(int operations) {
+                final SynchList<Integer> list = new SynchList<Integer>();
+                KThread partner = fork(operations, new Operation() {
+                    public void run() {
+                        list.removeFirst();
+                    }
+                });
+
+                Integer item = Integer.valueOf(0);
+                for (int i = 0; i < operations; i++)
+                    list.add(item);
+                partner.join();
+            }
+        },
+
+        /** <tt>fork()</tt> and <tt>join()</tt> of a thread that does nothing. */
+        FORK_JOIN {
+            void run(int operations) {
+                Runnable nothing = new Runnable() {
+                    public void run() {
+                    }
+                };
+
+                for (int i = 0; i < operations; i++) {
+                    KThread thread = new KThread(nothing);
+                    thread.fork();
+                    thread.join();
+                }
+            }
+        };
+
+        abstract void run(int operations);
+    }
+
+    /**
+     * Boot Nachos with the specified scheduler, unless it is already running
+     * with it.
+     *
+     * @param scheduler   the class name of the scheduler to use.
+     * @param lightweight the value of <tt>TCB.lightweight</tt>.
+     */
+    public static synchronized void boot(String scheduler,
+                                         boolean lightweight) {
+        if (bootedWith != null) {
+            if (!bootedWith.equals(scheduler + " " + lightweight))
+                throw new IllegalStateException("Nachos already booted with " +
+                        bootedWith);
+            return;
+        }
+
+        final String[] args;
+        try {
+            File config = File.createTempFile("harness", ".conf");
+            config.deleteOnExit();
+
+            PrintWriter writer = new PrintWriter(new FileWriter(config));
+            writer.println("Machine.stubFileSystem = false");
+            writer.println("Machine.processor = false");
+            writer.println("Machine.console = false");
+            writer.println("Machine.disk = false");
+            writer.println("Machine.bank = false");
+            writer.println("Machine.networkLink = false");
+            writer.println("ElevatorBank.allowElevatorGUI = false");
+            writer.println("NachosSecurityManager.fullySecure = false");
+            writer.println("ThreadedKernel.scheduler = " + scheduler);
+            writer.println("Kernel.kernel = " + HarnessKernel.class.getName());
+            writer.println("TCB.lightweight = " + lightweight);
+            writer.close();
+
+            args = new String[]{"-[]", config.getPath()};
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot write Nachos config", e);
+        }
+
+        Thread machine = new Thread(new Runnable() {
+            public void run() {
+                Machine.main(args);
+            }
+        }, "Nachos");
+        machine.setDaemon(true);
+        machine.start();
+
+        awaitUninterruptibly(ready);
+        bootedWith = scheduler + " " + lightweight;
+    }
+
+    /**
+     * Run <i>operations</i> operations of the specified workload on Nachos,
+     * and wait for them to finish. <tt>boot()</tt> must have been called.
+     *
+     * @param workload   the operations to run.
+     * @param operations how many to run.
+     */
+    public static void run(Workload workload, int operations) {
+        Batch batch = new Batch(workload, operations);
+
+        while (true) {
+            try {
+                batches.put(batch);
+                break;
+            } catch (InterruptedException e) {
+            }
+        }
+        awaitUninterruptibly(batch.done);
+    }
+
+    /**
+     * Time every workload without JMH and print the host nanoseconds per
+     * operation. The optional argument is the scheduler to use.
+     *
+     * @param args the command line arguments.
+     */
+    public static void main(String[] args) {
+        String scheduler = (args.length > 0) ? args[0] :
+                "nachos.threads.RoundRobinScheduler";
+        boot(scheduler, false);
+
+        final int operations = 1000, batchesPerRound = 20;
+        for (Workload workload : Workload.values()) {
+            for (int i = 0; i < batchesPerRound; i++)
+                run(workload, operations);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < batchesPerRound; i++)
+                run(workload, operations);
+            long nanos = System.nanoTime() - start;
+
+            long total = (long) operations * batchesPerRound;
+            System.out.println(workload + ": " + nanos / total + " ns/op, " +
+                    total * 1000000000L / nanos + " op/s");
+        }
+
+        System.exit(0);
+    }
+
+    static void booted() {
+        ready.countDown();
+    }
+
+    static Batch nextBatch() {
+        while (true) {
+            try {
+                return batches.take();
+            } catch (InterruptedException e) {
+            }
+        }
+    }
+
+    /**
+     * One operation of a workload, repeated by a partner thread.
+     */
+    private interface Operation {
+        void run();
+    }
+
+    private static KThread fork(final int operations,
+                                final Operation operation) {
+        KThread thread = new KThread(new Runnable() {
+            public void run() {
+                for (int i = 0; i < operations; i++)
+                    operation.run();
+            }
+        });
+        thread.fork();
+        return thread;
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        while (true) {
+            try {
+                latch.await();
+                return;
+            } catch (InterruptedException e) {
+            }
+        }
+    }
+
+    static final class Batch {
+        Batch(Workload workload, int operations) {
+            this.workload = workload;
+            this.operations = operations;
+        }
+
+        void finish() {
+            done.countDown();
+        }
+
+        final Workload workload;
+        final int operations;
+        private final CountDownLatch done = new CountDownLatch(1);
+    }
+
+    private static final SynchronousQueue<Batch> batches =
+            new SynchronousQueue<Batch>();
+    private static final CountDownLatch ready = new CountDownLatch(1);
+    private static String bootedWith = null;
+}
@@ -0,0 +1,100 @@
+package nachos.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of the <tt>nachos.threads</tt> synchronization primitives,
+ * in host nanoseconds per operation. Every operation hands the processor to
+ * another Nachos thread at least once, so these mostly measure the TCB
+ * context switch and the scheduler's ready queue underneath the primitive.
+ * See <tt>NachosHarness.Workload</tt> for exactly what one operation is.
+ *
+ * <p>
+ * Each fork boots its own Nachos, which can only happen once per JVM, so
+ * these must not be run with <tt>-f 0</tt> when more than one scheduler is
+ * given. Run them with <tt>gmake bench</tt> from a project directory, which
+ * also lets the forks install a security manager on Java 18 and later.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThreadsBenchmark {
+    /**
+     * Operations per JMH invocation, to amortize the handoff between the
+     * benchmark thread and Nachos.
+     */
+    private static final int batch = 1000;
+
+    @Param({"nachos.threads.RoundRobinScheduler"})
+    public String scheduler;
+
+    @Param({"false"})
+    public boolean lightweight;
+
+    @Setup(Level.Trial)
+    public void boot() {
+        NachosHarness.boot(scheduler, lightweight);
+    }
+
+    /**
+     * Context switches per second: two threads yielding to each other.
+     */
+    @Benchmark
+    @OperationsPerInvocation(batch)
+    public void contextSwitch() {
+        NachosHarness.run(NachosHarness.Workload.SWITCH, batch);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(batch)
+    public void semaphorePV() {
+        NachosHarness.run(NachosHarness.Workload.SEMAPHORE, batch);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(batch)
+    public void lockAcquireRelease() {
+        NachosHarness.run(NachosHarness.Workload.LOCK, batch);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(batch)
+    public void condition2SleepWake() {
+        NachosHarness.run(NachosHarness.Workload.CONDITION, batch);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(batch)
+    public void communicatorSpeakListen() {
+        NachosHarness.run(NachosHarness.Workload.COMMUNICATOR, batch);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(batch)
+    public void synchListAddRemove() {
+        NachosHarness.run(NachosHarness.Workload.SYNCHLIST, batch);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(batch)
+    public void forkJoin() {
+        NachosHarness.run(NachosHarness.Workload.FORK_JOIN, batch);
+    }
+}
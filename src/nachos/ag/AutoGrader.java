@@ -162,6 +162,32 @@ public class AutoGrader {
      * @param    idleThread    the idle thread.
      */
     public void setIdleThread(KThread idleThread) {
+        this.idleThread = idleThread;
+    }
+
+    /**
+     * Notify the autograder that a real-time thread has completed a job,
+     * which is counted in the runtime statistics.
+     * <tt>DeadlineScheduler.waitForNextPeriod()</tt> <i>must</i> call this.
+     *
+     * @param    missed    <tt>true</tt> if the job completed after its
+     * deadline.
+     */
+    public void completedDeadlineJob(boolean missed) {
+        privilege.stats.numDeadlineJobs++;
+        if (missed)
+            privilege.stats.numDeadlineMisses++;
+    }
+
+    /**
+     * Notify the autograder that no thread is ready to run, so that the
+     * simulated time can skip ahead to just before the next pending
+     * interrupt. Only the idle thread may call this, with interrupts enabled.
+     */
+    public void idle() {
+        Lib.assertTrue(idleThread != null && currentThread == idleThread,
+                "only the idle thread may skip ahead");
+        privilege.interrupt.idle();
     }
 
     /**
@@ -273,4 +299,5 @@ public class AutoGrader {
     }
 
     private KThread currentThread;
+    private KThread idleThread = null;
 }
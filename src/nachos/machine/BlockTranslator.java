@@ -0,0 +1,851 @@
+// PART OF THE MACHINE SIMULATION. DO NOT CHANGE.
+
+package nachos.machine;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.util.HashMap;
+
+/**
+ * Translates basic blocks of MIPS instructions into JVM classes, so that hot
+ * user code runs as host bytecode rather than through the interpreter's
+ * <tt>switch</tt>.
+ *
+ * <p>
+ * Each generated class implements <tt>Processor.CompiledBlock</tt> and
+ * operates directly on the processor's register array. Every instruction
+ * updates the PC exactly as <tt>Processor.Instruction</tt> would, and memory
+ * accesses, division and overflow checks go through the same processor
+ * methods the interpreter uses, so a fault inside translated code leaves the
+ * processor in the same state as if the block had been interpreted.
+ *
+ * <p>
+ * Blocks containing a syscall, an unaligned load or store
+ * (<tt>lwl</tt>, <tt>lwr</tt>, <tt>swl</tt>, <tt>swr</tt>), or an invalid
+ * instruction are not translated.
+ *
+ * <p>
+ * Classes are defined in this package through
+ * <tt>MethodHandles.Lookup</tt>, as hidden classes when the host supports
+ * them so that they can be unloaded along with their block, and never
+ * through a new class loader, which the Nachos security manager forbids.
+ * Both ways are looked up by name, since Nachos still builds for Java 8; on
+ * Java 8, which has neither, no blocks are translated.
+ * For the same reason classes are defined and instantiated through method
+ * handles rather than core reflection, which eventually generates accessor
+ * classes in a class loader of its own.
+ */
+final class BlockTranslator {
+    /**
+     * Allocate a new block translator.
+     */
+    BlockTranslator() {
+        lookup = MethodHandles.lookup();
+
+        try {
+            Class<?> optionClass = Class.forName(
+                    "java.lang.invoke.MethodHandles$Lookup$ClassOption");
+            Object options = Array.newInstance(optionClass, 0);
+
+            // fixed arity, so that the options array is passed as it is
+            // rather than wrapped in another one
+            defineHiddenClass = lookup.findVirtual(
+                    MethodHandles.Lookup.class, "defineHiddenClass",
+                    MethodType.methodType(MethodHandles.Lookup.class,
+                            byte[].class, boolean.class, options.getClass()))
+                    .asFixedArity();
+            noOptions = options;
+        } catch (ReflectiveOperationException e) {
+            // hidden classes need Java 15, so fall back to defineClass()
+        }
+
+        try {
+            defineClass = lookup.findVirtual(MethodHandles.Lookup.class,
+                    "defineClass",
+                    MethodType.methodType(Class.class, byte[].class));
+        } catch (ReflectiveOperationException e) {
+            // Java 8: translate() fails, and the interpreter is used
+        }
+    }
+
+    /**
+     * Test whether the specified instructions can be translated.
+     *
+     * @param    instructions    the instructions in a basic block.
+     * @return    <tt>true</tt> if every instruction can be translated.
+     */
+    static boolean canTranslate(Processor.DecodedInstruction[] instructions) {
+        for (int i = 0; i < instructions.length; i++) {
+            switch (instructions[i].operation) {
+                case Processor.Mips.INVALID:
+                case Processor.Mips.UNIMPL:
+                case Processor.Mips.SYSCALL:
+                case Processor.Mips.LWL:
+                case Processor.Mips.LWR:
+                case Processor.Mips.SWL:
+                case Processor.Mips.SWR:
+                    return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Translate a basic block into a new JVM class and return an instance of
+     * it.
+     *
+     * @param    instructions    the instructions in the block, which must
+     * satisfy <tt>canTranslate()</tt>.
+     * @return    the translated block.
+     * @exception Throwable    if the generated class could not be defined.
+     */
+    Processor.CompiledBlock translate(
+            Processor.DecodedInstruction[] instructions) throws Throwable {
+        String name = "nachos/machine/Processor$Translated" + numTranslated++;
+
+        byte[] classFile = generate(name, instructions);
+
+        Class<?> cls;
+        if (defineHiddenClass != null) {
+            MethodHandles.Lookup hidden = (MethodHandles.Lookup)
+                    defineHiddenClass.invokeWithArguments(lookup, classFile,
+                            true, noOptions);
+            cls = hidden.lookupClass();
+        } else if (defineClass != null) {
+            cls = (Class<?>) defineClass.invoke(lookup, classFile);
+        } else {
+            throw new UnsupportedOperationException(
+                    "cannot define classes through a lookup");
+        }
+
+        MethodHandle constructor = lookup.findConstructor(cls,
+                MethodType.methodType(void.class));
+
+        return (Processor.CompiledBlock) constructor.invoke();
+    }
+
+    private byte[] generate(String name,
+                            Processor.DecodedInstruction[] instructions) {
+        pool = new ConstantPool();
+        code = new Code();
+
+        int thisClass = pool.classRef(name);
+        int superClass = pool.classRef("java/lang/Object");
+        int iface = pool.classRef("nachos/machine/Processor$CompiledBlock");
+        int objectInit = pool.methodRef("java/lang/Object", "<init>", "()V");
+
+        boolean loadPending = true;
+        for (int i = 0; i < instructions.length; i++) {
+            translateInstruction(instructions[i], loadPending);
+            loadPending = Lib.test(Processor.Mips.DELAYEDLOAD,
+                    instructions[i].flags);
+        }
+        code.op(RETURN);
+
+        Code init = new Code();
+        init.op(ALOAD_0);
+        init.op(INVOKESPECIAL);
+        init.u2(objectInit);
+        init.op(RETURN);
+
+        Code file = new Code();
+        int initName = pool.utf8("<init>");
+        int initDesc = pool.utf8("()V");
+        int runName = pool.utf8("run");
+        int runDesc = pool.utf8("(Lnachos/machine/Processor;[I)V");
+        int codeName = pool.utf8("Code");
+
+        file.u4(0xCAFEBABE);
+        file.u2(0);
+        file.u2(classVersion);
+        pool.write(file);
+        file.u2(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+        file.u2(thisClass);
+        file.u2(superClass);
+        file.u2(1);
+        file.u2(iface);
+        file.u2(0);        // fields
+        file.u2(2);        // methods
+        writeMethod(file, initName, initDesc, codeName, 1, 1, init);
+        writeMethod(file, runName, runDesc, codeName, maxStack, numLocals,
+                code);
+        file.u2(0);        // attributes
+
+        pool = null;
+        code = null;
+
+        return file.toByteArray();
+    }
+
+    private void writeMethod(Code file, int name, int descriptor,
+                             int codeName, int stack, int locals, Code body) {
+        file.u2(ACC_PUBLIC);
+        file.u2(name);
+        file.u2(descriptor);
+        file.u2(1);
+        file.u2(codeName);
+        file.u4(12 + body.length());
+        file.u2(stack);
+        file.u2(locals);
+        file.u4(body.length());
+        file.bytes(body);
+        file.u2(0);        // exception table
+        file.u2(0);        // attributes
+    }
+
+    /**
+     * Emit bytecode for one instruction, following the decode, execute and
+     * write back steps of <tt>Processor.Instruction</tt>.
+     *
+     * @param    inst    the instruction to translate.
+     * @param    loadPending    <tt>false</tt> if no delayed load can be in
+     * progress before this instruction.
+     */
+    private void translateInstruction(Processor.DecodedInstruction inst,
+                                      boolean loadPending) {
+        int flags = inst.flags;
+        int operation = inst.operation;
+        boolean unsigned = Lib.test(Processor.Mips.UNSIGNED, flags);
+        boolean branch = Lib.test(Processor.Mips.BRANCH, flags);
+
+        // decode
+        if (branch) {
+            if (inst.format == Processor.Mips.RFMT) {
+                loadRegister(inst.rs);
+            } else if (inst.format == Processor.Mips.IFMT) {
+                loadRegister(Processor.regNextPC);
+                pushInt(inst.branchOffset);
+                code.op(IADD);
+            } else {
+                loadRegister(Processor.regNextPC);
+                pushInt(0xF0000000);
+                code.op(IAND);
+                pushInt(inst.jumpTarget);
+                code.op(IOR);
+            }
+            code.op(ISTORE);
+            code.u1(localJTarget);
+        }
+
+        if (usesSrc1(operation)) {
+            if (Lib.test(Processor.Mips.SRC1SH, flags))
+                pushLong(unsigned ? inst.sh & 0xFFFFFFFFL : inst.sh);
+            else
+                loadRegisterAsLong(inst.rs, unsigned);
+            code.op(LSTORE);
+            code.u1(localSrc1);
+        }
+
+        if (usesSrc2(operation)) {
+            if (Lib.test(Processor.Mips.SRC2IMM, flags))
+                pushLong(unsigned ? inst.imm & 0xFFFFFFFFL : inst.imm);
+            else
+                loadRegisterAsLong(inst.rt, unsigned);
+            code.op(LSTORE);
+            code.u1(localSrc2);
+        }
+
+        // execute
+        switch (operation) {
+            case Processor.Mips.ADD:
+                binary(LADD);
+                break;
+            case Processor.Mips.SUB:
+                binary(LSUB);
+                break;
+            case Processor.Mips.MULT:
+                binary(LMUL);
+                storeRegister(Processor.regLo);
+                code.op(LLOAD);
+                code.u1(localDst);
+                code.op(L2I);
+                code.op(IASTORE);
+                storeRegister(Processor.regHi);
+                code.op(LLOAD);
+                code.u1(localDst);
+                pushInt(32);
+                code.op(LSHR);
+                code.op(L2I);
+                code.op(IASTORE);
+                break;
+            case Processor.Mips.DIV:
+                code.op(ALOAD_1);
+                code.op(LLOAD);
+                code.u1(localSrc1);
+                code.op(LLOAD);
+                code.u1(localSrc2);
+                invokeProcessor("divide", "(JJ)V");
+                break;
+
+            case Processor.Mips.SLL:
+                shift(LSHL);
+                break;
+            case Processor.Mips.SRA:
+                shift(LSHR);
+                break;
+            case Processor.Mips.SRL:
+                shift(LUSHR);
+                break;
+
+            case Processor.Mips.SLT: {
+                code.op(LLOAD);
+                code.u1(localSrc1);
+                code.op(LLOAD);
+                code.u1(localSrc2);
+                code.op(LCMP);
+                int notLess = code.jump(IFGE);
+                code.op(LCONST_1);
+                int done = code.jump(GOTO);
+                code.patch(notLess);
+                code.op(LCONST_0);
+                code.patch(done);
+                code.op(LSTORE);
+                code.u1(localDst);
+                break;
+            }
+
+            case Processor.Mips.AND:
+                binary(LAND);
+                break;
+            case Processor.Mips.OR:
+                binary(LOR);
+                break;
+            case Processor.Mips.NOR:
+                binary(LOR);
+                code.op(LLOAD);
+                code.u1(localDst);
+                pushLong(-1);
+                code.op(LXOR);
+                code.op(LSTORE);
+                code.u1(localDst);
+                break;
+            case Processor.Mips.XOR:
+                binary(LXOR);
+                break;
+            case Processor.Mips.LUI:
+                pushLong(inst.imm << 16);
+                code.op(LSTORE);
+                code.u1(localDst);
+                break;
+
+            case Processor.Mips.BEQ:
+                conditionalBranch(IFNE, true);
+                break;
+            case Processor.Mips.BNE:
+                conditionalBranch(IFEQ, true);
+                break;
+            case Processor.Mips.BGEZ:
+                conditionalBranch(IFLT, false);
+                break;
+            case Processor.Mips.BGTZ:
+                conditionalBranch(IFLE, false);
+                break;
+            case Processor.Mips.BLEZ:
+                conditionalBranch(IFGT, false);
+                break;
+            case Processor.Mips.BLTZ:
+                conditionalBranch(IFGE, false);
+                break;
+            case Processor.Mips.JUMP:
+                code.op(ILOAD);
+                code.u1(localJTarget);
+                code.op(ISTORE);
+                code.u1(localNextPC);
+                break;
+
+            case Processor.Mips.MFLO:
+                loadRegisterAsLong(Processor.regLo, false);
+                code.op(LSTORE);
+                code.u1(localDst);
+                break;
+            case Processor.Mips.MFHI:
+                loadRegisterAsLong(Processor.regHi, false);
+                code.op(LSTORE);
+                code.u1(localDst);
+                break;
+            case Processor.Mips.MTLO:
+            case Processor.Mips.MTHI:
+                storeRegister(operation == Processor.Mips.MTLO ?
+                        Processor.regLo : Processor.regHi);
+                code.op(LLOAD);
+                code.u1(localSrc1);
+                code.op(L2I);
+                code.op(IASTORE);
+                break;
+
+            case Processor.Mips.LOAD:
+                code.op(ALOAD_1);
+                address(inst);
+                pushInt(inst.size);
+                invokeProcessor("readMem", "(II)I");
+                if (!unsigned && inst.size == 1)
+                    code.op(I2B);
+                else if (!unsigned && inst.size == 2)
+                    code.op(I2S);
+                code.op(I2L);
+                code.op(LSTORE);
+                code.u1(localDst);
+                break;
+            case Processor.Mips.STORE:
+                code.op(ALOAD_1);
+                address(inst);
+                pushInt(inst.size);
+                loadRegister(inst.rt);
+                invokeProcessor("writeMem", "(III)V");
+                break;
+
+            default:
+                Lib.assertNotReached();
+        }
+
+        // write back
+        if (Lib.test(Processor.Mips.OVERFLOW, flags)) {
+            code.op(ALOAD_1);
+            code.op(LLOAD);
+            code.u1(localDst);
+            invokeProcessor("checkOverflow", "(J)V");
+        }
+
+        if (Lib.test(Processor.Mips.DELAYEDLOAD, flags)) {
+            code.op(ALOAD_1);
+            pushInt(inst.dstReg);
+            code.op(LLOAD);
+            code.u1(localDst);
+            code.op(L2I);
+            pushInt(0xFFFFFFFF);
+            invokeProcessor("delayedLoad", "(III)V");
+        } else if (loadPending) {
+            // after the first finishLoad() there is nothing left to finish
+            code.op(ALOAD_1);
+            invokeProcessor("finishLoad", "()V");
+        }
+
+        if (Lib.test(Processor.Mips.LINK, flags)) {
+            loadRegister(Processor.regNextPC);
+            pushInt(4);
+            code.op(IADD);
+            code.op(I2L);
+            code.op(LSTORE);
+            code.u1(localDst);
+        }
+
+        if (Lib.test(Processor.Mips.DST, flags) && inst.dstReg != 0) {
+            storeRegister(inst.dstReg);
+            code.op(LLOAD);
+            code.u1(localDst);
+            code.op(L2I);
+            code.op(IASTORE);
+        }
+
+        // advance the PC
+        storeRegister(Processor.regPC);
+        loadRegister(Processor.regNextPC);
+        code.op(IASTORE);
+
+        storeRegister(Processor.regNextPC);
+        if (branch) {
+            code.op(ILOAD);
+            code.u1(localNextPC);
+        } else {
+            code.op(ALOAD_2);
+            pushInt(Processor.regNextPC);
+            code.op(IALOAD);
+            pushInt(4);
+            code.op(IADD);
+        }
+        code.op(IASTORE);
+    }
+
+    private static boolean usesSrc1(int operation) {
+        switch (operation) {
+            case Processor.Mips.ADD:
+            case Processor.Mips.SUB:
+            case Processor.Mips.MULT:
+            case Processor.Mips.DIV:
+            case Processor.Mips.SLL:
+            case Processor.Mips.SRA:
+            case Processor.Mips.SRL:
+            case Processor.Mips.SLT:
+            case Processor.Mips.AND:
+            case Processor.Mips.OR:
+            case Processor.Mips.NOR:
+            case Processor.Mips.XOR:
+            case Processor.Mips.MTLO:
+            case Processor.Mips.MTHI:
+            case Processor.Mips.BEQ:
+            case Processor.Mips.BNE:
+            case Processor.Mips.BLEZ:
+            case Processor.Mips.BGTZ:
+            case Processor.Mips.BLTZ:
+            case Processor.Mips.BGEZ:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean usesSrc2(int operation) {
+        switch (operation) {
+            case Processor.Mips.ADD:
+            case Processor.Mips.SUB:
+            case Processor.Mips.MULT:
+            case Processor.Mips.DIV:
+            case Processor.Mips.SLL:
+            case Processor.Mips.SRA:
+            case Processor.Mips.SRL:
+            case Processor.Mips.SLT:
+            case Processor.Mips.AND:
+            case Processor.Mips.OR:
+            case Processor.Mips.NOR:
+            case Processor.Mips.XOR:
+            case Processor.Mips.BEQ:
+            case Processor.Mips.BNE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /** dst = src1 <i>op</i> src2 */
+    private void binary(int opcode) {
+        code.op(LLOAD);
+        code.u1(localSrc1);
+        code.op(LLOAD);
+        code.u1(localSrc2);
+        code.op(opcode);
+        code.op(LSTORE);
+        code.u1(localDst);
+    }
+
+    /** dst = src2 <i>op</i> (src1 &amp; 0x1F) */
+    private void shift(int opcode) {
+        code.op(LLOAD);
+        code.u1(localSrc2);
+        code.op(LLOAD);
+        code.u1(localSrc1);
+        code.op(L2I);
+        pushInt(0x1F);
+        code.op(IAND);
+        code.op(opcode);
+        code.op(LSTORE);
+        code.u1(localDst);
+    }
+
+    /**
+     * nextPC = taken ? jtarget : registers[regNextPC] + 4, where the branch
+     * is not taken if <i>skipOpcode</i> succeeds on the comparison of src1
+     * with src2, or with zero.
+     */
+    private void conditionalBranch(int skipOpcode, boolean compareSrc2) {
+        loadRegister(Processor.regNextPC);
+        pushInt(4);
+        code.op(IADD);
+        code.op(ISTORE);
+        code.u1(localNextPC);
+
+        code.op(LLOAD);
+        code.u1(localSrc1);
+        if (compareSrc2) {
+            code.op(LLOAD);
+            code.u1(localSrc2);
+        } else {
+            code.op(LCONST_0);
+        }
+        code.op(LCMP);
+
+        int notTaken = code.jump(skipOpcode);
+        code.op(ILOAD);
+        code.u1(localJTarget);
+        code.op(ISTORE);
+        code.u1(localNextPC);
+        code.patch(notTaken);
+    }
+
+    /** push registers[rs] + imm */
+    private void address(Processor.DecodedInstruction inst) {
+        loadRegister(inst.rs);
+        pushInt(inst.imm);
+        code.op(IADD);
+    }
+
+    private void loadRegister(int number) {
+        code.op(ALOAD_2);
+        pushInt(number);
+        code.op(IALOAD);
+    }
+
+    private void loadRegisterAsLong(int number, boolean unsigned) {
+        loadRegister(number);
+        code.op(I2L);
+        if (unsigned) {
+            pushLong(0xFFFFFFFFL);
+            code.op(LAND);
+        }
+    }
+
+    /** push the array and index for a following <tt>iastore</tt> */
+    private void storeRegister(int number) {
+        code.op(ALOAD_2);
+        pushInt(number);
+    }
+
+    private void invokeProcessor(String name, String descriptor) {
+        code.op(INVOKEVIRTUAL);
+        code.u2(pool.methodRef("nachos/machine/Processor", name,
+                descriptor));
+    }
+
+    private void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            code.op(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            code.op(BIPUSH);
+            code.u1(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            code.op(SIPUSH);
+            code.u2(value);
+        } else {
+            code.op(LDC_W);
+            code.u2(pool.integer(value));
+        }
+    }
+
+    private void pushLong(long value) {
+        if (value == 0) {
+            code.op(LCONST_0);
+        } else if (value == 1) {
+            code.op(LCONST_1);
+        } else {
+            code.op(LDC2_W);
+            code.u2(pool.longConstant(value));
+        }
+    }
+
+    /**
+     * A growable byte buffer, used for both method bodies and the class file
+     * itself.
+     */
+    private static class Code {
+        void op(int opcode) {
+            u1(opcode);
+        }
+
+        void u1(int value) {
+            if (length == buffer.length) {
+                byte[] larger = new byte[buffer.length * 2];
+                System.arraycopy(buffer, 0, larger, 0, length);
+                buffer = larger;
+            }
+            buffer[length++] = (byte) value;
+        }
+
+        void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        void u4(int value) {
+            u2(value >> 16);
+            u2(value);
+        }
+
+        void bytes(Code other) {
+            for (int i = 0; i < other.length; i++)
+                u1(other.buffer[i]);
+        }
+
+        /**
+         * Emit a branch with a placeholder offset, and return the position
+         * to pass to <tt>patch()</tt>.
+         */
+        int jump(int opcode) {
+            int position = length;
+            op(opcode);
+            u2(0);
+            return position;
+        }
+
+        /** Point the branch at <i>position</i> to the current end. */
+        void patch(int position) {
+            int offset = length - position;
+            buffer[position + 1] = (byte) (offset >> 8);
+            buffer[position + 2] = (byte) offset;
+        }
+
+        int length() {
+            return length;
+        }
+
+        byte[] toByteArray() {
+            byte[] result = new byte[length];
+            System.arraycopy(buffer, 0, result, 0, length);
+            return result;
+        }
+
+        private byte[] buffer = new byte[256];
+        private int length = 0;
+    }
+
+    private static class ConstantPool {
+        int utf8(String value) {
+            return lookup("U" + value, 1, new Object[] {value});
+        }
+
+        int integer(int value) {
+            return lookup("I" + value, 1, new Object[] {value});
+        }
+
+        int longConstant(long value) {
+            return lookup("J" + value, 2, new Object[] {value});
+        }
+
+        int classRef(String name) {
+            return lookup("C" + name, 1, new Object[] {utf8(name)});
+        }
+
+        int methodRef(String owner, String name, String descriptor) {
+            int cls = classRef(owner);
+            int nameAndType = lookup("N" + name + " " + descriptor, 1,
+                    new Object[] {utf8(name), utf8(descriptor)});
+            return lookup("M" + owner + "." + name + descriptor, 1,
+                    new Object[] {cls, nameAndType});
+        }
+
+        private int lookup(String key, int slots, Object[] entry) {
+            Integer index = indices.get(key);
+            if (index != null)
+                return index;
+
+            int result = count;
+            indices.put(key, result);
+            count += slots;
+
+            char tag = key.charAt(0);
+            switch (tag) {
+                case 'U':
+                    String value = (String) entry[0];
+                    data.u1(1);
+                    data.u2(value.length());
+                    for (int i = 0; i < value.length(); i++)
+                        data.u1(value.charAt(i));
+                    break;
+                case 'I':
+                    data.u1(3);
+                    data.u4((Integer) entry[0]);
+                    break;
+                case 'J':
+                    long bits = (Long) entry[0];
+                    data.u1(5);
+                    data.u4((int) (bits >> 32));
+                    data.u4((int) bits);
+                    break;
+                case 'C':
+                    data.u1(7);
+                    data.u2((Integer) entry[0]);
+                    break;
+                case 'N':
+                    data.u1(12);
+                    data.u2((Integer) entry[0]);
+                    data.u2((Integer) entry[1]);
+                    break;
+                case 'M':
+                    data.u1(10);
+                    data.u2((Integer) entry[0]);
+                    data.u2((Integer) entry[1]);
+                    break;
+                default:
+                    Lib.assertNotReached();
+            }
+
+            return result;
+        }
+
+        void write(Code file) {
+            file.u2(count);
+            file.bytes(data);
+        }
+
+        private HashMap<String, Integer> indices =
+                new HashMap<String, Integer>();
+        private Code data = new Code();
+        private int count = 1;
+    }
+
+    private MethodHandles.Lookup lookup;
+    private MethodHandle defineHiddenClass = null;
+    private MethodHandle defineClass = null;
+    private Object noOptions;
+    private int numTranslated = 0;
+
+    private ConstantPool pool;
+    private Code code;
+
+    /**
+     * Class files are emitted in the Java 5 format, which the verifier checks
+     * by type inference, so no stack map frames are needed.
+     */
+    private static final int classVersion = 49;
+
+    private static final int maxStack = 8;
+    private static final int numLocals = 11;
+
+    // local variables of the generated run(Processor, int[]) method; 0 is
+    // this, 1 is the processor and 2 is the register array
+    private static final int localSrc1 = 3;
+    private static final int localSrc2 = 5;
+    private static final int localDst = 7;
+    private static final int localNextPC = 9;
+    private static final int localJTarget = 10;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final int
+            ICONST_0 = 0x03,
+            LCONST_0 = 0x09,
+            LCONST_1 = 0x0a,
+            BIPUSH = 0x10,
+            SIPUSH = 0x11,
+            LDC_W = 0x13,
+            LDC2_W = 0x14,
+            ILOAD = 0x15,
+            LLOAD = 0x16,
+            ALOAD_0 = 0x2a,
+            ALOAD_1 = 0x2b,
+            ALOAD_2 = 0x2c,
+            IALOAD = 0x2e,
+            ISTORE = 0x36,
+            LSTORE = 0x37,
+            IASTORE = 0x4f,
+            IADD = 0x60,
+            LADD = 0x61,
+            LSUB = 0x65,
+            LMUL = 0x69,
+            LSHL = 0x79,
+            LSHR = 0x7b,
+            LUSHR = 0x7d,
+            IAND = 0x7e,
+            LAND = 0x7f,
+            IOR = 0x80,
+            LOR = 0x81,
+            LXOR = 0x83,
+            I2L = 0x85,
+            L2I = 0x88,
+            I2B = 0x91,
+            I2S = 0x93,
+            LCMP = 0x94,
+            IFEQ = 0x99,
+            IFNE = 0x9a,
+            IFLT = 0x9b,
+            IFGE = 0x9c,
+            IFGT = 0x9d,
+            IFLE = 0x9e,
+            GOTO = 0xa7,
+            RETURN = 0xb1,
+            INVOKEVIRTUAL = 0xb6,
+            INVOKESPECIAL = 0xb7;
+}
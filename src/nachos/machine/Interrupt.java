@@ -4,9 +4,8 @@ package nachos.machine;
 
 import nachos.security.*;
 
-import java.util.TreeSet;
-import java.util.Iterator;
-import java.util.SortedSet;
+import java.util.LinkedList;
+
 
 /**
  * The <tt>Interrupt</tt> class emulates low-level interrupt hardware. The
@@ -53,7 +52,21 @@ public final class Interrupt {
         privilege.interrupt = new InterruptPrivilege();
 
         enabled = false;
-        pending = new TreeSet<PendingInterrupt>();
+
+        heap = new int[initialCapacity];
+        slotTime = new long[initialCapacity];
+        slotId = new long[initialCapacity];
+        slotType = new String[initialCapacity];
+        slotHandler = new Runnable[initialCapacity];
+        slotPosition = new int[initialCapacity];
+        slotGeneration = new int[initialCapacity];
+        nextFree = new int[initialCapacity];
+        for (int i = 0; i < initialCapacity; i++) {
+            slotPosition[i] = -1;
+            slotGeneration[i] = 1;
+            nextFree[i] = i + 1;
+        }
+        freeList = 0;
     }
 
     /**
@@ -120,38 +133,188 @@ public final class Interrupt {
         return !enabled;
     }
 
-    private void schedule(long when, String type, Runnable handler) {
+    private long schedule(long when, String type, Runnable handler) {
         Lib.assertTrue(when > 0);
 
         long time = privilege.stats.totalTicks + when;
-        PendingInterrupt toOccur = new PendingInterrupt(time, type, handler);
 
-        Lib.debug(dbgInt,
-                "Scheduling the " + type +
-                        " interrupt handler at time = " + time);
+        if (Lib.test(dbgInt))
+            System.out.println("Scheduling the " + type +
+                    " interrupt handler at time = " + time);
+
+        if (freeList == slotTime.length)
+            grow();
+
+        int slot = freeList;
+        freeList = nextFree[slot];
+
+        slotTime[slot] = time;
+        slotId[slot] = numPendingInterruptsCreated++;
+        slotType[slot] = type;
+        slotHandler[slot] = handler;
+
+        siftUp(numPending++, slot);
+
+        return ((long) slotGeneration[slot] << 32) | slot;
+    }
+
+    /**
+     * Return the slot of the pending interrupt identified by <i>handle</i>,
+     * or -1 if it has already occurred or been cancelled.
+     */
+    private int pendingSlot(long handle) {
+        int slot = (int) handle;
+        int generation = (int) (handle >>> 32);
+
+        if (slot < 0 || slot >= slotTime.length ||
+                slotGeneration[slot] != generation ||
+                slotPosition[slot] == -1)
+            return -1;
+
+        return slot;
+    }
+
+    private boolean cancel(long handle) {
+        int slot = pendingSlot(handle);
+        if (slot == -1)
+            return false;
+
+        if (Lib.test(dbgInt))
+            System.out.println("Cancelling the " + slotType[slot] +
+                    " interrupt handler at time = " + slotTime[slot]);
+
+        remove(slotPosition[slot]);
+        return true;
+    }
+
+    private boolean reschedule(long handle, long when) {
+        Lib.assertTrue(when > 0);
+
+        int slot = pendingSlot(handle);
+        if (slot == -1)
+            return false;
+
+        long time = privilege.stats.totalTicks + when;
+
+        if (Lib.test(dbgInt))
+            System.out.println("Rescheduling the " + slotType[slot] +
+                    " interrupt handler at time = " + time);
+
+        // order it as if it had just been scheduled
+        slotTime[slot] = time;
+        slotId[slot] = numPendingInterruptsCreated++;
+
+        int position = slotPosition[slot];
+        siftUp(position, slot);
+        if (slotPosition[slot] == position)
+            siftDown(position, slot);
+
+        return true;
+    }
+
+    private void post(long when, String type, Runnable handler) {
+        Lib.assertTrue(when > 0);
+
+        synchronized (posted) {
+            posted.add(new PostedInterrupt(when, type, handler));
+            anyPosted = true;
+        }
+    }
 
-        pending.add(toOccur);
+    /**
+     * Schedule the interrupts posted by non-Nachos threads since the last
+     * tick.
+     */
+    private void schedulePosted() {
+        synchronized (posted) {
+            while (!posted.isEmpty()) {
+                PostedInterrupt next = posted.removeFirst();
+                schedule(next.when, next.type, next.handler);
+            }
+            anyPosted = false;
+        }
     }
 
     private void tick(boolean inKernelMode) {
+        tick(inKernelMode, 1);
+    }
+
+    private void tick(boolean inKernelMode, int count) {
+        Lib.assertTrue(count > 0);
+
         Stats stats = privilege.stats;
 
         if (inKernelMode) {
-            stats.kernelTicks += Stats.KernelTick;
-            stats.totalTicks += Stats.KernelTick;
+            stats.kernelTicks += Stats.KernelTick * count;
+            stats.totalTicks += Stats.KernelTick * count;
         } else {
-            stats.userTicks += Stats.UserTick;
-            stats.totalTicks += Stats.UserTick;
+            stats.userTicks += Stats.UserTick * count;
+            stats.totalTicks += Stats.UserTick * count;
         }
 
         if (Lib.test(dbgInt))
             System.out.println("== Tick " + stats.totalTicks + " ==");
 
+        if (anyPosted)
+            schedulePosted();
+
         enabled = false;
         checkIfDue();
         enabled = true;
     }
 
+    /**
+     * Advance the simulated time as if the kernel had spun with interrupts
+     * enabled, one kernel tick at a time, up to but not including the tick
+     * at which the next pending interrupt becomes due. The next time the
+     * simulated time advances, that interrupt occurs, exactly when it would
+     * have if the kernel had kept spinning.
+     *
+     * <p>
+     * The idle thread has this done, through the autograder, when no thread
+     * is ready to run, so that waiting for a timer or device costs no host
+     * time. It does nothing if the interrupt trace is enabled, so that every
+     * tick is still printed.
+     */
+    private void idle() {
+        Lib.assertTrue(enabled);
+
+        if (numPending == 0 || anyPosted || Lib.test(dbgInt))
+            return;
+
+        Stats stats = privilege.stats;
+        long ticks = slotTime[heap[0]] - stats.totalTicks;
+        long skipped = (ticks + Stats.KernelTick - 1) / Stats.KernelTick - 1;
+
+        if (skipped > 0) {
+            stats.kernelTicks += skipped * Stats.KernelTick;
+            stats.totalTicks += skipped * Stats.KernelTick;
+        }
+    }
+
+    /**
+     * Return the number of user instructions after which the next pending
+     * interrupt becomes due. Before then, ticking only advances the simulated
+     * time, so a processor may run up to this many instructions and account
+     * for them with a single call to <tt>tick(false, count)</tt>.
+     *
+     * @return    the event horizon, at least 1.
+     */
+    private long horizon() {
+        // the interrupt trace prints every tick, so batch nothing, and
+        // posted interrupts are only scheduled by the next tick
+        if (Lib.test(dbgInt) || anyPosted)
+            return 1;
+
+        if (numPending == 0)
+            return Integer.MAX_VALUE;
+
+        long ticks = slotTime[heap[0]] - privilege.stats.totalTicks;
+        long instructions = (ticks + Stats.UserTick - 1) / Stats.UserTick;
+
+        return Math.max(1, Math.min(instructions, Integer.MAX_VALUE));
+    }
+
     private void checkIfDue() {
         long time = privilege.stats.totalTicks;
 
@@ -160,27 +323,25 @@ public final class Interrupt {
         if (Lib.test(dbgInt))
             print();
 
-        if (pending.isEmpty())
-            return;
-
-        if (((PendingInterrupt) pending.first()).time > time)
+        if (numPending == 0 || slotTime[heap[0]] > time)
             return;
 
         Lib.debug(dbgInt, "Invoking interrupt handlers at time = " + time);
 
-        while (!pending.isEmpty() &&
-                ((PendingInterrupt) pending.first()).time <= time) {
-            PendingInterrupt next = (PendingInterrupt) pending.first();
-            pending.remove(next);
+        while (numPending > 0 && slotTime[heap[0]] <= time) {
+            int slot = heap[0];
+            String type = slotType[slot];
+            Runnable handler = slotHandler[slot];
 
-            Lib.assertTrue(next.time <= time);
+            remove(0);
 
             if (privilege.processor != null)
                 privilege.processor.flushPipe();
 
-            Lib.debug(dbgInt, "  " + next.type);
+            if (Lib.test(dbgInt))
+                System.out.println("  " + type);
 
-            next.handler.run();
+            handler.run();
         }
 
         Lib.debug(dbgInt, "  (end of list)");
@@ -191,44 +352,153 @@ public final class Interrupt {
                 + ", interrupts " + (enabled ? "on" : "off"));
         System.out.println("Pending interrupts:");
 
-        for (Iterator i = pending.iterator(); i.hasNext(); ) {
-            PendingInterrupt toOccur = (PendingInterrupt) i.next();
-            System.out.println("  " + toOccur.type +
-                    ", scheduled at " + toOccur.time);
+        // the heap is only partially ordered, so sort a copy for printing
+        int[] sorted = new int[numPending];
+        for (int i = 0; i < numPending; i++) {
+            int slot = heap[i];
+            int j = i;
+            for (; j > 0 && before(slot, sorted[j - 1]); j--)
+                sorted[j] = sorted[j - 1];
+            sorted[j] = slot;
+        }
+
+        for (int i = 0; i < numPending; i++) {
+            System.out.println("  " + slotType[sorted[i]] +
+                    ", scheduled at " + slotTime[sorted[i]]);
         }
 
         System.out.println("  (end of list)");
     }
 
-    private class PendingInterrupt implements Comparable {
-        PendingInterrupt(long time, String type, Runnable handler) {
-            this.time = time;
-            this.type = type;
-            this.handler = handler;
-            this.id = numPendingInterruptsCreated++;
+    /**
+     * Test whether the interrupt in slot <i>a</i> occurs before the one in
+     * slot <i>b</i>. Interrupts scheduled for the same time occur in the
+     * order they were scheduled.
+     */
+    private boolean before(int a, int b) {
+        return slotTime[a] < slotTime[b] ||
+                (slotTime[a] == slotTime[b] && slotId[a] < slotId[b]);
+    }
+
+    /**
+     * Move the interrupt in <i>slot</i> up from heap position <i>i</i> until
+     * its parent occurs before it.
+     */
+    private void siftUp(int i, int slot) {
+        while (i > 0) {
+            int parent = (i - 1) >> 2;
+            if (!before(slot, heap[parent]))
+                break;
+
+            place(i, heap[parent]);
+            i = parent;
+        }
+
+        place(i, slot);
+    }
+
+    /**
+     * Move the interrupt in <i>slot</i> down from heap position <i>i</i>
+     * until all of its children occur after it.
+     */
+    private void siftDown(int i, int slot) {
+        while (true) {
+            int child = (i << 2) + 1;
+            if (child >= numPending)
+                break;
+
+            int end = Math.min(child + 4, numPending);
+            int first = child;
+            for (int c = child + 1; c < end; c++) {
+                if (before(heap[c], heap[first]))
+                    first = c;
+            }
+
+            if (!before(heap[first], slot))
+                break;
+
+            place(i, heap[first]);
+            i = first;
+        }
+
+        place(i, slot);
+    }
+
+    private void place(int i, int slot) {
+        heap[i] = slot;
+        slotPosition[slot] = i;
+    }
+
+    /**
+     * Remove the pending interrupt at heap position <i>i</i> and recycle its
+     * slot. Bumping the slot's generation invalidates any outstanding handle
+     * to it.
+     */
+    private void remove(int i) {
+        int slot = heap[i];
+
+        numPending--;
+        if (i < numPending) {
+            int last = heap[numPending];
+            siftUp(i, last);
+            if (slotPosition[last] == i)
+                siftDown(i, last);
+        }
+
+        slotType[slot] = null;
+        slotHandler[slot] = null;
+        slotPosition[slot] = -1;
+        slotGeneration[slot]++;
+        nextFree[slot] = freeList;
+        freeList = slot;
+    }
+
+    private void grow() {
+        int capacity = slotTime.length * 2;
+
+        heap = copyOf(heap, capacity);
+        slotTime = copyOf(slotTime, capacity);
+        slotId = copyOf(slotId, capacity);
+        slotType = copyOf(slotType, new String[capacity]);
+        slotHandler = copyOf(slotHandler, new Runnable[capacity]);
+        slotPosition = copyOf(slotPosition, capacity);
+        slotGeneration = copyOf(slotGeneration, capacity);
+        nextFree = copyOf(nextFree, capacity);
+
+        for (int i = capacity / 2; i < capacity; i++) {
+            slotPosition[i] = -1;
+            slotGeneration[i] = 1;
+            nextFree[i] = i + 1;
         }
+    }
+
+    private static int[] copyOf(int[] array, int capacity) {
+        int[] result = new int[capacity];
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+
+    private static long[] copyOf(long[] array, int capacity) {
+        long[] result = new long[capacity];
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
 
-        public int compareTo(Object o) {
-            PendingInterrupt toOccur = (PendingInterrupt) o;
+    private static <T> T[] copyOf(T[] array, T[] result) {
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
 
-            // can't return 0 for unequal objects, so check all fields
-            if (time < toOccur.time)
-                return -1;
-            else if (time > toOccur.time)
-                return 1;
-            else if (id < toOccur.id)
-                return -1;
-            else if (id > toOccur.id)
-                return 1;
-            else
-                return 0;
+    private static class PostedInterrupt {
+        PostedInterrupt(long when, String type, Runnable handler) {
+            this.when = when;
+            this.type = type;
+            this.handler = handler;
         }
 
-        long time;
+        long when;
         String type;
         Runnable handler;
-
-        private long id;
     }
 
     private long numPendingInterruptsCreated = 0;
@@ -236,17 +506,70 @@ public final class Interrupt {
     private Privilege privilege;
 
     private boolean enabled;
-    private TreeSet<PendingInterrupt> pending;
+
+    /**
+     * Pending interrupts, as a 4-ary min-heap of slot numbers ordered by
+     * (time, id). The children of position <i>i</i> are at positions
+     * <tt>4i+1</tt> through <tt>4i+4</tt>.
+     */
+    private int[] heap;
+    private int numPending = 0;
+
+    /**
+     * The interrupt stored in each slot. Slots are recycled through
+     * <tt>nextFree</tt>, so scheduling an interrupt allocates nothing once
+     * the arrays are large enough. A handle is a slot number together with
+     * the slot's generation, which changes whenever the slot is freed.
+     */
+    private long[] slotTime, slotId;
+    private String[] slotType;
+    private Runnable[] slotHandler;
+    private int[] slotPosition, slotGeneration;
+    private int[] nextFree;
+    private int freeList;
+
+    /**
+     * Interrupts posted by non-Nachos threads, waiting for the next tick.
+     */
+    private final LinkedList<PostedInterrupt> posted =
+            new LinkedList<PostedInterrupt>();
+    private volatile boolean anyPosted = false;
+
+    private static final int initialCapacity = 16;
 
     private static final char dbgInt = 'i';
 
     private class InterruptPrivilege implements Privilege.InterruptPrivilege {
-        public void schedule(long when, String type, Runnable handler) {
-            Interrupt.this.schedule(when, type, handler);
+        public long schedule(long when, String type, Runnable handler) {
+            return Interrupt.this.schedule(when, type, handler);
+        }
+
+        public boolean cancel(long handle) {
+            return Interrupt.this.cancel(handle);
+        }
+
+        public boolean reschedule(long handle, long when) {
+            return Interrupt.this.reschedule(handle, when);
+        }
+
+        public void post(long when, String type, Runnable handler) {
+            Interrupt.this.post(when, type, handler);
         }
 
         public void tick(boolean inKernelMode) {
             Interrupt.this.tick(inKernelMode);
         }
+
+        public void tick(boolean inKernelMode, int count) {
+            Interrupt.this.tick(inKernelMode, count);
+        }
+
+        public long horizon() {
+            return Interrupt.this.horizon();
+        }
+
+        public void idle() {
+            Interrupt.this.idle();
+        }
     }
 }
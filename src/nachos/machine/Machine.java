@@ -27,6 +27,8 @@ public final class Machine {
 
         Config.load(configFileName);
 
+        hostYield = Config.getBoolean("Machine.hostYield", false);
+
         // get the current directory (.)
         baseDirectory = new File(new File("").getAbsolutePath());
         // get the nachos directory (./nachos)
@@ -51,6 +53,7 @@ public final class Machine {
         TCB.givePrivilege(privilege);
         privilege.stats = stats;
 
+        initializeStringConcat();
         securityManager.enable();
         createDevices();
         checkUserClasses();
@@ -64,12 +67,31 @@ public final class Machine {
         });
     }
 
+    /**
+     * Initialize the JVM's support for string concatenation, which javac
+     * compiles to <tt>invokedynamic</tt> on Java 9 and later, while we are
+     * still privileged. Its static initializer reads system properties,
+     * which the security manager will not let Nachos threads do, so if the
+     * first concatenation ran in a Nachos thread, it would fail.
+     */
+    private static void initializeStringConcat() {
+        try {
+            Class.forName("java.lang.invoke.StringConcatFactory");
+        } catch (ClassNotFoundException e) {
+            // Java 8: concatenation does not use it
+        }
+    }
+
     /**
      * Yield to non-Nachos threads. Use in non-preemptive JVM's to give
-     * non-Nachos threads a chance to run.
+     * non-Nachos threads a chance to run. Every JVM Nachos now runs on
+     * preempts its threads, so this does nothing unless
+     * <tt>Machine.hostYield</tt> is set; otherwise it would cost a host
+     * system call on every context switch.
      */
     public static void yield() {
-        Thread.yield();
+        if (hostYield)
+            Thread.yield();
     }
 
     /**
@@ -369,6 +391,8 @@ public final class Machine {
     private static NetworkLink networkLink = null;
     private static AutoGrader autoGrader = null;
 
+    private static boolean hostYield = false;
+
     private static String autoGraderClassName = "nachos.ag.AutoGrader";
 
     /**
@@ -116,7 +116,7 @@ public class NetworkLink {
             }
         };
 
-        scheduleReceiveInterrupt();
+        startReceive();
 
         Thread receiveThread = new Thread(new Runnable() {
             public void run() {
@@ -164,6 +164,18 @@ public class NetworkLink {
                 receiveInterrupt);
     }
 
+    /**
+     * Get ready to receive the next packet. If one has already arrived, the
+     * receive interrupt is scheduled now; otherwise the receive thread
+     * posts it when the next packet arrives.
+     */
+    private synchronized void startReceive() {
+        if (incomingBytes != null)
+            scheduleReceiveInterrupt();
+        else
+            waitingForPacket = true;
+    }
+
     private synchronized void receiveInterrupt() {
         Lib.assertTrue(incomingPacket == null);
 
@@ -181,11 +193,11 @@ public class NetworkLink {
             notify();
 
             if (incomingPacket == null)
-                scheduleReceiveInterrupt();
+                startReceive();
             else if (receiveInterruptHandler != null)
                 receiveInterruptHandler.run();
         } else {
-            scheduleReceiveInterrupt();
+            startReceive();
         }
     }
 
@@ -200,7 +212,7 @@ public class NetworkLink {
 
         if (incomingPacket != null) {
             incomingPacket = null;
-            scheduleReceiveInterrupt();
+            startReceive();
         }
 
         return p;
@@ -235,6 +247,12 @@ public class NetworkLink {
 
             synchronized (this) {
                 incomingBytes = packetBytes;
+
+                if (waitingForPacket) {
+                    waitingForPacket = false;
+                    privilege.interrupt.post(Stats.NetworkTime,
+                            "network recv", receiveInterrupt);
+                }
             }
         }
     }
@@ -325,5 +343,11 @@ public class NetworkLink {
     private Packet incomingPacket = null;
     private Packet outgoingPacket = null;
 
+    /**
+     * Set while no receive interrupt is pending because no packet has
+     * arrived yet.
+     */
+    private boolean waitingForPacket = false;
+
     private boolean sendBusy = false;
 }
@@ -4,6 +4,9 @@ package nachos.machine;
 
 import nachos.security.*;
 
+import java.security.PrivilegedAction;
+import java.util.Arrays;
+
 /**
  * The <tt>Processor</tt> class simulates a MIPS processor that supports a
  * subset of the R3000 instruction set. Specifically, the processor lacks all
@@ -46,6 +49,19 @@ public final class Processor {
             registers[i] = 0;
 
         mainMemory = new byte[pageSize * numPhysPages];
+        decodeCache = new DecodedInstruction[numPhysPages][];
+        blockCache = new BasicBlock[numPhysPages][];
+
+        useBlockEngine = Config.getBoolean("Processor.useBlockEngine", false);
+
+        // translated code runs a block at a time, so it implies the block
+        // engine
+        if (Config.getBoolean("Processor.jit", false)) {
+            useBlockEngine = true;
+            jitThreshold = Config.getInteger("Processor.jitThreshold", 50);
+            translator = new BlockTranslator();
+            checkTranslator();
+        }
 
         if (usingTLB) {
             translations = new TranslationEntry[tlbSize];
@@ -82,6 +98,15 @@ public final class Processor {
 
     /**
      * Start executing instructions at the current PC. Never returns.
+     *
+     * <p>
+     * Rather than advancing the simulated time after every instruction, the
+     * processor asks the interrupt controller how many instructions can run
+     * before the next interrupt is due, runs up to that many, and then
+     * accounts for all of them at once. Instructions run before an exception
+     * are accounted for before the exception is handled, so the simulated
+     * time at which every interrupt and exception occurs is the same as if
+     * each instruction were followed by its own tick.
      */
     public void run() {
         Lib.debug(dbgProcessor, "starting program in current thread");
@@ -90,17 +115,235 @@ public final class Processor {
 
         Machine.autoGrader().runProcessor(privilege);
 
+        // the block engine skips the per-instruction fetch trace, so fall back
+        // to the interpreter whenever instructions are being traced
+        if (useBlockEngine && !Lib.test(dbgProcessor) &&
+                !Lib.test(dbgDisassemble) && !Lib.test(dbgFullDisassemble))
+            runBlocks();
+
         Instruction inst = new Instruction();
+        long horizon = privilege.interrupt.horizon();
+        int pending = 0;
 
         while (true) {
             try {
                 inst.run();
             } catch (MipsException e) {
+                if (pending > 0)
+                    privilege.interrupt.tick(false, pending);
+
+                e.handle();
+
+                privilege.interrupt.tick(false);
+                horizon = privilege.interrupt.horizon();
+                pending = 0;
+                continue;
+            }
+
+            if (++pending >= horizon) {
+                privilege.interrupt.tick(false, pending);
+                horizon = privilege.interrupt.horizon();
+                pending = 0;
+            }
+        }
+    }
+
+    /**
+     * Execute instructions a basic block at a time. Never returns.
+     *
+     * <p>
+     * Each block is translated once on entry, so its instructions are not
+     * translated individually. Simulated time is batched up to the event
+     * horizon just as in <tt>run()</tt>; a block that would cross the
+     * horizon is only run up to it, so interrupts are still delivered after
+     * exactly the same instruction.
+     *
+     * <p>
+     * If <tt>Processor.jit</tt> is set, blocks that have run
+     * <tt>Processor.jitThreshold</tt> times are translated to JVM bytecode by
+     * a <tt>BlockTranslator</tt>.
+     */
+    private void runBlocks() {
+        Instruction inst = new Instruction();
+        BasicBlock previous = null;
+        Stats stats = privilege.stats;
+        long horizon = privilege.interrupt.horizon();
+        int pending = 0;
+
+        while (true) {
+            int start = registers[regPC];
+            int executed = 0;
+            boolean translated = false;
+            long budget = horizon - pending;
+
+            try {
+                BasicBlock block =
+                        findBlock(previous, translate(start, 4, false));
+                previous = block;
+
+                if (translator != null && block.code == null &&
+                        ++block.executions == jitThreshold)
+                    compile(block);
+
+                // translated code assumes it starts outside a delay slot
+                if (block.code != null && block.length <= budget &&
+                        registers[regNextPC] == start + 4) {
+                    translated = true;
+                    block.code.run(this, registers);
+                    executed = block.length;
+                } else {
+                    // leave the block as soon as control does not fall
+                    // through to the next word, e.g. when a block was
+                    // entered at a delay slot
+                    int limit = (int) Math.min(block.length, budget);
+                    int vaddr = start;
+                    while (executed < limit && registers[regPC] == vaddr) {
+                        inst.run(block.instructions[executed]);
+                        executed++;
+                        vaddr += 4;
+                    }
+                }
+            } catch (MipsException e) {
+                previous = null;
+
+                // translated code keeps the PC at the faulting instruction
+                if (translated)
+                    executed = (registers[regPC] - start) >> 2;
+
+                count(stats, translated, executed);
+                pending += executed;
+                if (pending > 0)
+                    privilege.interrupt.tick(false, pending);
+
                 e.handle();
+
+                count(stats, false, 1);
+                privilege.interrupt.tick(false);
+                horizon = privilege.interrupt.horizon();
+                pending = 0;
+                continue;
+            }
+
+            count(stats, translated, executed);
+            pending += executed;
+            if (pending >= horizon) {
+                privilege.interrupt.tick(false, pending);
+                horizon = privilege.interrupt.horizon();
+                pending = 0;
             }
+        }
+    }
+
+    private static void count(Stats stats, boolean translated, int executed) {
+        if (translated)
+            stats.numTranslatedInstructions += executed;
+        else
+            stats.numInterpretedInstructions += executed;
+    }
+
+    /**
+     * Translate a hot block. If the translator fails, translation is turned
+     * off for good and execution continues in the block engine.
+     *
+     * @param    block    the block to translate.
+     */
+    private void compile(BasicBlock block) {
+        if (BlockTranslator.canTranslate(block.instructions))
+            block.code = translate(block.instructions);
+    }
+
+    /**
+     * Translate the specified instructions. If the translator fails, report
+     * it and turn translation off for good.
+     *
+     * @param    instructions    the instructions in a basic block.
+     * @return the translated block, or <tt>null</tt> if translation failed.
+     */
+    private CompiledBlock translate(final DecodedInstruction[] instructions) {
+        return (CompiledBlock) privilege.doPrivileged(
+                new PrivilegedAction<Object>() {
+                    public Object run() {
+                        try {
+                            return translator.translate(instructions);
+                        } catch (Throwable e) {
+                            System.out.println(
+                                    "\nblock translation disabled: " + e);
+                            translator = null;
+                            return null;
+                        }
+                    }
+                });
+    }
 
-            privilege.interrupt.tick(false);
+    /**
+     * Check that the translator works on this host by translating a short
+     * block and running it, so that a translator that cannot define classes
+     * is reported at once rather than leaving every block interpreted.
+     */
+    private void checkTranslator() {
+        // addiu $2, $0, 5; addu $3, $2, $2; sll $4, $3, 2
+        int[] words = {0x24020005, 0x00421821, 0x00032080};
+
+        DecodedInstruction[] instructions =
+                new DecodedInstruction[words.length];
+        for (int i = 0; i < words.length; i++)
+            instructions[i] = new DecodedInstruction(words[i]);
+
+        CompiledBlock code = translate(instructions);
+        if (code == null)
+            return;
+
+        int[] scratch = new int[numUserRegisters];
+        scratch[regPC] = 0x100;
+        scratch[regNextPC] = 0x104;
+
+        try {
+            code.run(this, scratch);
+        } catch (MipsException e) {
+            Lib.assertNotReached("translated test block raised " + e);
         }
+
+        Lib.assertTrue(scratch[2] == 5 && scratch[3] == 10 &&
+                scratch[4] == 40 && scratch[regPC] == 0x10C &&
+                scratch[regNextPC] == 0x110);
+    }
+
+    /**
+     * Find the basic block starting at physical address <i>paddr</i>, first
+     * by following the link from the block that just finished, then through
+     * the block cache, building a new block if neither is still valid.
+     *
+     * @param    previous    the block executed last, or <tt>null</tt>.
+     * @param    paddr    the physical address of the next instruction.
+     * @return the basic block starting at <i>paddr</i>.
+     */
+    private BasicBlock findBlock(BasicBlock previous, int paddr) {
+        BasicBlock block = null;
+
+        if (previous != null) {
+            block = previous.successor(paddr);
+            if (block != null && block.matches())
+                return block;
+        }
+
+        int ppn = paddr / pageSize;
+        BasicBlock[] page = blockCache[ppn];
+        if (page == null) {
+            page = new BasicBlock[pageSize / 4];
+            blockCache[ppn] = page;
+        }
+
+        int index = (paddr % pageSize) >> 2;
+        block = page[index];
+        if (block == null || !block.matches()) {
+            block = new BasicBlock(paddr);
+            page[index] = block;
+        }
+
+        if (previous != null)
+            previous.link(block);
+
+        return block;
     }
 
     /**
@@ -273,7 +516,7 @@ public final class Processor {
         return (int) (((long) address & 0xFFFFFFFFL) % pageSize);
     }
 
-    private void finishLoad() {
+    void finishLoad() {
         delayedLoad(0, 0, 0);
     }
 
@@ -369,7 +612,7 @@ public final class Processor {
      * @return the value read.
      * @exception MipsException    if a translation error occurred.
      */
-    private int readMem(int vaddr, int size) throws MipsException {
+    int readMem(int vaddr, int size) throws MipsException {
         if (Lib.test(dbgProcessor))
             System.out.println("\treadMem vaddr=0x" + Lib.toHexString(vaddr)
                     + ", size=" + size);
@@ -395,7 +638,7 @@ public final class Processor {
      * @param    value    the value to store.
      * @exception MipsException    if a translation error occurred.
      */
-    private void writeMem(int vaddr, int size, int value)
+    void writeMem(int vaddr, int size, int value)
             throws MipsException {
         if (Lib.test(dbgProcessor))
             System.out.println("\twriteMem vaddr=0x" + Lib.toHexString(vaddr)
@@ -404,8 +647,79 @@ public final class Processor {
 
         Lib.assertTrue(size == 1 || size == 2 || size == 4);
 
-        Lib.bytesFromInt(mainMemory, translate(vaddr, size, true), size,
-                value);
+        int paddr = translate(vaddr, size, true);
+
+        Lib.bytesFromInt(mainMemory, paddr, size, value);
+
+        DecodedInstruction[] page = decodeCache[paddr / pageSize];
+        if (page != null)
+            page[(paddr % pageSize) >> 2] = null;
+    }
+
+    /**
+     * Fetch the instruction at <i>vaddr</i> and return its predecoded form.
+     * Instructions are decoded once and cached per physical page; a cached
+     * entry is reused only while the word in memory still matches the word it
+     * was decoded from, since the kernel can also write physical memory
+     * directly through <tt>getMemory()</tt>.
+     *
+     * @param    vaddr    the virtual address of the instruction.
+     * @return the predecoded instruction.
+     * @exception MipsException    if a translation error occurred.
+     */
+    private DecodedInstruction fetchDecoded(int vaddr) throws MipsException {
+        if (Lib.test(dbgProcessor))
+            System.out.println("\treadMem vaddr=0x" + Lib.toHexString(vaddr)
+                    + ", size=4");
+
+        DecodedInstruction decoded = decodeAt(translate(vaddr, 4, false));
+
+        if (Lib.test(dbgProcessor))
+            System.out.println("\t\tvalue read=0x" +
+                    Lib.toHexString(decoded.value, 8));
+
+        return decoded;
+    }
+
+    /**
+     * Return the predecoded form of the instruction word at physical address
+     * <i>paddr</i>, decoding it if the cached entry is missing or stale.
+     *
+     * @param    paddr    the physical address of the instruction.
+     * @return the predecoded instruction.
+     */
+    private DecodedInstruction decodeAt(int paddr) {
+        int value = Lib.bytesToInt(mainMemory, paddr);
+
+        int ppn = paddr / pageSize;
+        DecodedInstruction[] page = decodeCache[ppn];
+        if (page == null) {
+            page = new DecodedInstruction[pageSize / 4];
+            decodeCache[ppn] = page;
+        }
+
+        int index = (paddr % pageSize) >> 2;
+        DecodedInstruction decoded = page[index];
+        if (decoded == null || decoded.value != value) {
+            decoded = new DecodedInstruction(value);
+            page[index] = decoded;
+        }
+
+        return decoded;
+    }
+
+    /**
+     * Discard all predecoded instructions for the specified physical page.
+     * Called whenever the contents of the page are replaced wholesale, such as
+     * by <tt>CoffSection.loadPage()</tt>.
+     *
+     * @param    ppn    the physical page whose contents changed.
+     */
+    void invalidatePage(int ppn) {
+        Lib.assertTrue(ppn >= 0 && ppn < numPhysPages);
+
+        decodeCache[ppn] = null;
+        blockCache[ppn] = null;
     }
 
     /**
@@ -419,8 +733,8 @@ public final class Processor {
      * corresponding bit of register
      * <tt>nextLoadTarget</tt> will not be written.
      */
-    private void delayedLoad(int nextLoadTarget, int nextLoadValue,
-                             int nextLoadMask) {
+    void delayedLoad(int nextLoadTarget, int nextLoadValue,
+                     int nextLoadMask) {
         // complete previous delayed load, if not modifying r0
         if (loadTarget != 0) {
             int savedBits = registers[loadTarget] & ~loadMask;
@@ -434,6 +748,38 @@ public final class Processor {
         loadMask = nextLoadMask;
     }
 
+    /**
+     * Divide <i>src1</i> by <i>src2</i>, leaving the quotient in the low
+     * register and the remainder in the high register.
+     *
+     * @param    src1    the dividend.
+     * @param    src2    the divisor.
+     * @exception MipsException    if the divisor is zero or the quotient
+     * overflows.
+     */
+    void divide(long src1, long src2) throws MipsException {
+        try {
+            registers[regLo] = (int) (src1 / src2);
+            registers[regHi] = (int) (src1 % src2);
+            if (registers[regLo] * src2 + registers[regHi] != src1)
+                throw new ArithmeticException();
+        } catch (ArithmeticException e) {
+            throw new MipsException(exceptionOverflow);
+        }
+    }
+
+    /**
+     * Check the result of a signed add or subtract for overflow.
+     *
+     * @param    dst    the result, computed with 64-bit arithmetic.
+     * @exception MipsException    if the result does not fit in 32 bits.
+     */
+    void checkOverflow(long dst) throws MipsException {
+        // if instruction is signed, but carry bit !+ sign bit, throw
+        if (Lib.test(dst, 31) != Lib.test(dst, 32))
+            throw new MipsException(exceptionOverflow);
+    }
+
     /**
      * Advance the PC to the next instruction.
      *
@@ -623,6 +969,33 @@ public final class Processor {
      * Main memory for user programs.
      */
     private byte[] mainMemory;
+    /**
+     * Predecoded instructions, indexed by physical page and then by word
+     * within the page. Pages are allocated on first fetch.
+     */
+    private DecodedInstruction[][] decodeCache;
+    /**
+     * Basic blocks, indexed by the physical page and word they start at.
+     */
+    private BasicBlock[][] blockCache;
+    /**
+     * <tt>true</tt> if <tt>run()</tt> should execute whole basic blocks.
+     */
+    private boolean useBlockEngine;
+
+    /**
+     * Translates hot blocks, or <tt>null</tt> if translation is disabled.
+     */
+    private BlockTranslator translator = null;
+    /**
+     * The number of times a block must run before it is translated.
+     */
+    private int jitThreshold;
+
+    /**
+     * The maximum number of instructions in a basic block.
+     */
+    private static final int maxBlockLength = 64;
 
     /**
      * The kernel exception handler, called on every user exception.
@@ -686,6 +1059,14 @@ public final class Processor {
             writeBack();
         }
 
+        public void run(DecodedInstruction decoded) throws MipsException {
+            // already fetched and translated as part of a basic block
+            this.decoded = decoded;
+            decode();
+            execute();
+            writeBack();
+        }
+
         private boolean test(int flag) {
             return Lib.test(flag, flags);
         }
@@ -696,78 +1077,46 @@ public final class Processor {
                 System.out.print("PC=0x" + Lib.toHexString(registers[regPC])
                         + "\t");
 
-            value = readMem(registers[regPC], 4);
+            decoded = fetchDecoded(registers[regPC]);
         }
 
         private void decode() {
-            op = Lib.extract(value, 26, 6);
-            rs = Lib.extract(value, 21, 5);
-            rt = Lib.extract(value, 16, 5);
-            rd = Lib.extract(value, 11, 5);
-            sh = Lib.extract(value, 6, 5);
-            func = Lib.extract(value, 0, 6);
-            target = Lib.extract(value, 0, 26);
-            imm = Lib.extend(value, 0, 16);
-
-            Mips info;
-            switch (op) {
-                case 0:
-                    info = Mips.specialtable[func];
-                    break;
-                case 1:
-                    info = Mips.regimmtable[rt];
-                    break;
-                default:
-                    info = Mips.optable[op];
-                    break;
-            }
-
-            operation = info.operation;
-            name = info.name;
-            format = info.format;
-            flags = info.flags;
+            DecodedInstruction d = decoded;
+
+            value = d.value;
+            op = d.op;
+            rs = d.rs;
+            rt = d.rt;
+            rd = d.rd;
+            sh = d.sh;
+            func = d.func;
+            target = d.target;
+            imm = d.imm;
+
+            operation = d.operation;
+            name = d.name;
+            format = d.format;
+            flags = d.flags;
+
+            size = d.size;
+            dstReg = d.dstReg;
 
             mask = 0xFFFFFFFF;
             branch = true;
 
-            // get memory access size
-            if (test(Mips.SIZEB))
-                size = 1;
-            else if (test(Mips.SIZEH))
-                size = 2;
-            else if (test(Mips.SIZEW))
-                size = 4;
-            else
-                size = 0;
-
             // get nextPC
             nextPC = registers[regNextPC] + 4;
 
-            // get dstReg
-            if (test(Mips.DSTRA))
-                dstReg = regRA;
-            else if (format == Mips.IFMT)
-                dstReg = rt;
-            else if (format == Mips.RFMT)
-                dstReg = rd;
-            else
-                dstReg = -1;
-
             // get jtarget
             if (format == Mips.RFMT)
                 jtarget = registers[rs];
             else if (format == Mips.IFMT)
-                jtarget = registers[regNextPC] + (imm << 2);
+                jtarget = registers[regNextPC] + d.branchOffset;
             else if (format == Mips.JFMT)
-                jtarget = (registers[regNextPC] & 0xF0000000) | (target << 2);
+                jtarget = (registers[regNextPC] & 0xF0000000) | d.jumpTarget;
             else
                 jtarget = -1;
 
-            // get imm
-            if (test(Mips.UNSIGNED)) {
-                imm &= 0xFFFF;
-            }
-
             // get addr
             addr = registers[rs] + imm;
 
@@ -931,14 +1280,7 @@ public final class Processor {
                     registers[regHi] = (int) Lib.extract(dst, 32, 32);
                     break;
                 case Mips.DIV:
-                    try {
-                        registers[regLo] = (int) (src1 / src2);
-                        registers[regHi] = (int) (src1 % src2);
-                        if (registers[regLo] * src2 + registers[regHi] != src1)
-                            throw new ArithmeticException();
-                    } catch (ArithmeticException e) {
-                        throw new MipsException(exceptionOverflow);
-                    }
+                    divide(src1, src2);
                     break;
 
                 case Mips.SLL:
@@ -1085,9 +1427,8 @@ public final class Processor {
         }
 
         private void writeBack() throws MipsException {
-            // if instruction is signed, but carry bit !+ sign bit, throw
-            if (test(Mips.OVERFLOW) && Lib.test(dst, 31) != Lib.test(dst, 32))
-                throw new MipsException(exceptionOverflow);
+            if (test(Mips.OVERFLOW))
+                checkOverflow(dst);
 
             if (test(Mips.DELAYEDLOAD))
                 delayedLoad(dstReg, (int) dst, mask);
@@ -1120,6 +1461,7 @@ public final class Processor {
         }
 
         // state used to execute a single instruction
+        DecodedInstruction decoded;
         int value, op, rs, rt, rd, sh, func, target, imm;
         int operation, format, flags;
         String name;
@@ -1131,7 +1473,171 @@ public final class Processor {
         boolean branch;
     }
 
-    private static class Mips {
+    /**
+     * The register-independent part of decoding a single instruction word.
+     * Everything here is a pure function of the word, so it can be computed
+     * once and cached for as long as the word stays in memory.
+     */
+    static final class DecodedInstruction {
+        DecodedInstruction(int value) {
+            this.value = value;
+
+            op = Lib.extract(value, 26, 6);
+            rs = Lib.extract(value, 21, 5);
+            rt = Lib.extract(value, 16, 5);
+            rd = Lib.extract(value, 11, 5);
+            sh = Lib.extract(value, 6, 5);
+            func = Lib.extract(value, 0, 6);
+            target = Lib.extract(value, 0, 26);
+            int signedImm = Lib.extend(value, 0, 16);
+
+            Mips info;
+            switch (op) {
+                case 0:
+                    info = Mips.specialtable[func];
+                    break;
+                case 1:
+                    info = Mips.regimmtable[rt];
+                    break;
+                default:
+                    info = Mips.optable[op];
+                    break;
+            }
+
+            operation = info.operation;
+            name = info.name;
+            format = info.format;
+            flags = info.flags;
+
+            // get memory access size
+            if (Lib.test(Mips.SIZEB, flags))
+                size = 1;
+            else if (Lib.test(Mips.SIZEH, flags))
+                size = 2;
+            else if (Lib.test(Mips.SIZEW, flags))
+                size = 4;
+            else
+                size = 0;
+
+            // get dstReg
+            if (Lib.test(Mips.DSTRA, flags))
+                dstReg = regRA;
+            else if (format == Mips.IFMT)
+                dstReg = rt;
+            else if (format == Mips.RFMT)
+                dstReg = rd;
+            else
+                dstReg = -1;
+
+            // branch targets are relative to nextPC, so only the offsets
+            // can be computed ahead of time
+            branchOffset = signedImm << 2;
+            jumpTarget = target << 2;
+
+            // get imm
+            if (Lib.test(Mips.UNSIGNED, flags))
+                imm = signedImm & 0xFFFF;
+            else
+                imm = signedImm;
+        }
+
+        final int value, op, rs, rt, rd, sh, func, target, imm;
+        final int operation, format, flags;
+        final String name;
+
+        final int size, dstReg;
+        final int branchOffset, jumpTarget;
+    }
+
+    /**
+     * A straight-line run of instructions within one physical page, ending
+     * after a branch or jump and its delay slot, or at an instruction that
+     * always raises an exception. Like the predecoded instructions it is
+     * built from, a block is only reused while the words in memory still
+     * match.
+     */
+    private final class BasicBlock {
+        BasicBlock(int paddr) {
+            this.paddr = paddr;
+
+            int end = Math.min((paddr / pageSize + 1) * pageSize,
+                    paddr + maxBlockLength * 4);
+            DecodedInstruction[] buffer =
+                    new DecodedInstruction[(end - paddr) >> 2];
+            int count = 0;
+
+            for (int addr = paddr; addr < end; addr += 4) {
+                DecodedInstruction decoded = decodeAt(addr);
+                buffer[count++] = decoded;
+
+                if (Lib.test(Mips.BRANCH, decoded.flags)) {
+                    // include the delay slot, if it is on this page
+                    if (addr + 4 < end)
+                        buffer[count++] = decodeAt(addr + 4);
+                    break;
+                }
+
+                if (decoded.operation == Mips.SYSCALL ||
+                        decoded.operation == Mips.UNIMPL ||
+                        decoded.operation == Mips.INVALID)
+                    break;
+            }
+
+            instructions = Arrays.copyOf(buffer, count);
+            length = count;
+        }
+
+        boolean matches() {
+            for (int i = 0; i < length; i++) {
+                if (Lib.bytesToInt(mainMemory, paddr + i * 4) !=
+                        instructions[i].value)
+                    return false;
+            }
+
+            return true;
+        }
+
+        BasicBlock successor(int paddr) {
+            if (fallThrough != null && fallThrough.paddr == paddr)
+                return fallThrough;
+            if (taken != null && taken.paddr == paddr)
+                return taken;
+            return null;
+        }
+
+        void link(BasicBlock next) {
+            if (next.paddr == paddr + length * 4)
+                fallThrough = next;
+            else
+                taken = next;
+        }
+
+        final int paddr, length;
+        final DecodedInstruction[] instructions;
+
+        BasicBlock fallThrough, taken;
+
+        int executions = 0;
+        CompiledBlock code = null;
+    }
+
+    /**
+     * A basic block translated to JVM bytecode by <tt>BlockTranslator</tt>.
+     */
+    interface CompiledBlock {
+        /**
+         * Run the whole block. If an instruction raises an exception, the PC
+         * is left pointing at it and the registers reflect every instruction
+         * before it.
+         *
+         * @param    processor    the processor the block runs on.
+         * @param    registers    the processor's registers.
+         * @exception MipsException    if an instruction raised an exception.
+         */
+        void run(Processor processor, int[] registers) throws MipsException;
+    }
+
+    static class Mips {
         Mips() {
         }
 
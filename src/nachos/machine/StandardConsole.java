@@ -8,6 +8,11 @@ import java.io.IOException;
 
 /**
  * A text-based console that uses System.in and System.out.
+ *
+ * <p>
+ * Rather than polling System.in, the console only schedules a receive
+ * interrupt when input is already buffered. Otherwise a host thread blocks
+ * reading System.in and posts the receive interrupt once a byte arrives.
  */
 public class StandardConsole implements SerialConsole {
     /**
@@ -28,8 +33,14 @@ public class StandardConsole implements SerialConsole {
 	sendInterrupt = new Runnable() {
 		public void run() { sendInterrupt(); }
 	    };		
+
+	Thread readThread = new Thread(new Runnable() {
+		public void run() { readLoop(); }
+	    });
+	readThread.setDaemon(true);
+	readThread.start();
 	
-	scheduleReceiveInterrupt();
+	startReceive();
     }
     
     public final void setInterruptHandlers(Runnable receiveInterruptHandler,
@@ -43,12 +54,84 @@ public class StandardConsole implements SerialConsole {
 				     receiveInterrupt);
     }
 
+    /**
+     * Get ready to receive the next byte. If one is already available, the
+     * receive interrupt is scheduled now, exactly as often as polling would
+     * have found it; otherwise the read thread is left to wait for one.
+     */
+    private void startReceive() {
+	synchronized (this) {
+	    if (heldByte == -1 && !inputAvailable()) {
+		waiting = true;
+		notify();
+		return;
+	    }
+	}
+
+	scheduleReceiveInterrupt();
+    }
+
+    private boolean inputAvailable() {
+	try {
+	    return System.in.available() > 0;
+	}
+	catch (IOException e) {
+	    return false;
+	}
+    }
+
+    /**
+     * Block reading System.in whenever the console is waiting for input, and
+     * hand each byte over with a posted receive interrupt.
+     */
+    private void readLoop() {
+	while (true) {
+	    synchronized (this) {
+		while (!waiting) {
+		    try {
+			wait();
+		    }
+		    catch (InterruptedException e) {
+		    }
+		}
+	    }
+
+	    int c;
+	    try {
+		c = System.in.read();
+	    }
+	    catch (IOException e) {
+		c = -1;
+	    }
+
+	    // at end of input, nothing will ever arrive to wait for
+	    if (c == -1)
+		return;
+
+	    synchronized (this) {
+		heldByte = c;
+		waiting = false;
+	    }
+
+	    privilege.interrupt.post(Stats.ConsoleTime, "console read",
+				     receiveInterrupt);
+	}
+    }
+
     /**
      * Attempt to read a byte from the object backing this console.
      *
      * @return	the byte read, or -1 of no data is available.
      */
     protected int in() {
+	synchronized (this) {
+	    if (heldByte != -1) {
+		int c = heldByte;
+		heldByte = -1;
+		return c;
+	    }
+	}
+
 	try {
 	    if (System.in.available() <= 0)
 		return -1;
@@ -91,7 +174,7 @@ public class StandardConsole implements SerialConsole {
 
 	incomingKey = translateCharacter(in());
 	if (incomingKey == -1) {
-	    scheduleReceiveInterrupt();
+	    startReceive();
 	}
 	else {
 	    privilege.stats.numConsoleReads++;
@@ -106,7 +189,7 @@ public class StandardConsole implements SerialConsole {
 
 	if (incomingKey != -1) {
 	    incomingKey = -1;
-	    scheduleReceiveInterrupt();
+	    startReceive();
 	}
 
 	return key;
@@ -158,4 +241,9 @@ public class StandardConsole implements SerialConsole {
     private int outgoingKey = -1;
 
     private boolean prevCarriageReturn = false;
+
+    /** A byte taken from System.in by the read thread, or -1. */
+    private int heldByte = -1;
+    /** Set while the read thread should block for more input. */
+    private boolean waiting = false;
 }
@@ -29,6 +29,13 @@ public final class Stats {
 			   + ", TLB misses " + numTLBMisses);
 	System.out.println("Network I/O: received " + numPacketsReceived
 			   + ", sent " + numPacketsSent);
+	if (numInterpretedInstructions + numTranslatedInstructions > 0)
+	    System.out.println("Instructions: interpreted "
+			       + numInterpretedInstructions
+			       + ", translated " + numTranslatedInstructions);
+	if (numDeadlineJobs > 0)
+	    System.out.println("Deadlines: jobs " + numDeadlineJobs
+			       + ", missed " + numDeadlineMisses);
     }
 
     /**
@@ -61,6 +68,18 @@ public final class Stats {
     public int numPacketsSent = 0;
     /** The total number of packets Nachos has received from the network. */
     public int numPacketsReceived = 0;
+    /**
+     * The number of user instructions the block engine has interpreted.
+     */
+    public long numInterpretedInstructions = 0;
+    /**
+     * The number of user instructions run as translated JVM bytecode.
+     */
+    public long numTranslatedInstructions = 0;
+    /** The number of real-time jobs that have completed. */
+    public int numDeadlineJobs = 0;
+    /** The number of real-time jobs that completed after their deadline. */
+    public int numDeadlineMisses = 0;
 
     /**
      * The amount to advance simulated time after each user instructions is
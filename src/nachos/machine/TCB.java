@@ -5,8 +5,15 @@ package nachos.machine;
 import nachos.security.*;
 import nachos.threads.KThread;
 
-import java.util.Vector;
-import java.security.PrivilegedAction;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * A TCB simulates the low-level details necessary to create, context-switch,
@@ -14,6 +21,26 @@ import java.security.PrivilegedAction;
  * object.
  *
  * <p>
+ * Control is handed from one TCB to the next with
+ * <tt>LockSupport.park()</tt>/<tt>unpark()</tt>: each TCB's volatile
+ * <tt>running</tt> flag says whether it owns the processor, the TCB giving
+ * it up clears its own flag, sets the next one's and unparks that TCB's
+ * thread, and a TCB parks until it sees its flag set. No monitor is taken on
+ * the way, so a switch costs one unpark and one park.
+ *
+ * <p>
+ * By default every TCB gets its own platform thread. If
+ * <tt>TCB.lightweight</tt> is set, TCBs instead run on virtual threads (or on
+ * platform threads with small stacks, if the JVM has no virtual threads or
+ * fails to start one), so that tens of thousands of TCBs can exist at once.
+ *
+ * <p>
+ * A Java thread whose TCB has been destroyed does not exit. It waits in a
+ * pool of idle carriers, up to <tt>TCB.poolSize</tt> of them (16 by
+ * default), and the next TCB started takes it over instead of creating a new
+ * thread, so forking many short-lived threads does not churn JVM threads.
+ *
+ * <p>
  * Do not use any methods in <tt>java.lang.Thread</tt>, as they are not
  * compatible with the TCB API. Most <tt>Thread</tt> methods will either crash
  * Nachos or have no useful effect.
@@ -40,6 +67,74 @@ public final class TCB {
     public static void givePrivilege(Privilege privilege) {
         TCB.privilege = privilege;
         privilege.tcb = new TCBPrivilege();
+
+        lightweight = Config.getBoolean("TCB.lightweight", false);
+        threadLimit = Config.getInteger("TCB.maxThreads",
+                lightweight ? 65536 : maxThreads);
+        Lib.assertTrue(threadLimit > 0);
+        poolSize = Config.getInteger("TCB.poolSize", 16);
+        Lib.assertTrue(poolSize >= 0);
+
+        if (lightweight) {
+            stackSize = Config.getInteger("TCB.stackSize", 256 * 1024);
+            newVirtualThread = findVirtualThreadFactory();
+        }
+    }
+
+    /**
+     * Return the maximum number of started, non-destroyed TCBs that can be in
+     * existence: <tt>TCB.maxThreads</tt> if it is set, otherwise
+     * <tt>maxThreads</tt>, or 65536 for lightweight TCBs.
+     *
+     * @return    the limit on running TCBs.
+     */
+    public static int getMaxThreads() {
+        return threadLimit;
+    }
+
+    /**
+     * Look up <tt>Thread.ofVirtual().unstarted(Runnable)</tt>. Nachos is built
+     * against a JVM that may not have virtual threads, so the builder is
+     * found by name and a method handle is returned that creates an unstarted
+     * virtual thread from a <tt>Runnable</tt>.
+     *
+     * <p>
+     * One virtual thread is started and joined here, before any TCB runs, so
+     * that the JVM sets up the scheduler and carrier threads behind virtual
+     * threads while the security manager still lets it.
+     *
+     * @return    a handle of type <tt>(Runnable)Thread</tt>, or <tt>null</tt>
+     * if this JVM cannot create and start virtual threads.
+     */
+    private static MethodHandle findVirtualThreadFactory() {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Class<?> virtualClass =
+                    Class.forName("java.lang.Thread$Builder$OfVirtual");
+
+            MethodHandle ofVirtual = lookup.findStatic(Thread.class,
+                    "ofVirtual", MethodType.methodType(virtualClass));
+            MethodHandle unstarted = lookup.findVirtual(builderClass,
+                    "unstarted",
+                    MethodType.methodType(Thread.class, Runnable.class));
+
+            Object builder = ofVirtual.invoke();
+            MethodHandle factory = unstarted.bindTo(builder);
+
+            Thread first = (Thread) factory.invoke(new Runnable() {
+                public void run() {
+                }
+            });
+            first.start();
+            first.join();
+
+            return factory;
+        } catch (Throwable e) {
+            // no virtual threads (or only as a disabled preview feature), or
+            // the JVM failed to start one
+            return null;
+        }
     }
 
     /**
@@ -66,7 +161,7 @@ public final class TCB {
         /* Make sure there aren't too many running TCBs already. This
          * limitation exists in an effort to prevent wild thread usage.
          */
-        Lib.assertTrue(runningThreads.size() < maxThreads);
+        Lib.assertTrue(runningThreads.size() < threadLimit);
 
         isFirstTCB = (currentTCB == null);
 
@@ -86,30 +181,33 @@ public final class TCB {
         this.target = target;
 
         if (!isFirstTCB) {
-            /* If this is not the first TCB, we have to make a new Java thread
-             * to run it. Creating Java threads is a privileged operation.
+            /* If this is not the first TCB, we need a Java thread to run it:
+             * an idle carrier if there is one, otherwise a new Java thread.
+             * Creating Java threads is a privileged operation.
              */
-            tcbTarget = new Runnable() {
-                public void run() {
-                    threadroot();
-                }
-            };
-
-            privilege.doPrivileged(new Runnable() {
-                public void run() {
-                    javaThread = new Thread(tcbTarget);
-                }
-            });
-
-            /* The Java thread hasn't yet started, but we need to get it
-             * blocking in yield(). We do this by temporarily turning off the
-             * current TCB, starting the new Java thread, and waiting for it
-             * to wake us up from threadroot(). Once the new TCB wakes us up,
-             * it's safe to context switch to the new TCB.
+            Carrier carrier = idleCarriers.poll();
+            if (carrier != null)
+                numIdleCarriers--;
+
+            /* The Java thread isn't running this TCB yet, but we need to get
+             * it blocking in yield(). We do this by temporarily turning off
+             * the current TCB, starting the new Java thread (or handing this
+             * TCB to the carrier), and waiting for it to wake us up from
+             * threadroot(). Once the new TCB wakes us up, it's safe to
+             * context switch to the new TCB.
              */
             currentTCB.running = false;
 
-            this.javaThread.start();
+            if (carrier == null) {
+                privilege.doPrivileged(new Runnable() {
+                    public void run() {
+                        startJavaThread();
+                    }
+                });
+            } else {
+                javaThread = carrier.javaThread;
+                carrier.carry(this);
+            }
             currentTCB.waitForInterrupt();
         } else {
             /* This is the first TCB, so we don't need to make a new Java
@@ -117,11 +215,41 @@ public final class TCB {
              */
             javaThread = Thread.currentThread();
 
-            /* All we have to do now is invoke threadroot() directly. */
+            /* All we have to do now is invoke threadroot() directly. If it
+             * returns, this TCB was destroyed; acknowledge that, and let the
+             * thread return from Machine.main().
+             */
             threadroot();
+            currentTCB.interrupt();
         }
     }
 
+    /**
+     * Create and start a new Java thread to run this TCB. If a virtual thread
+     * cannot be created or started, lightweight TCBs use platform threads
+     * with small stacks from then on. The caller must be privileged.
+     */
+    private void startJavaThread() {
+        Carrier carrier = new Carrier(this);
+
+        if (lightweight && newVirtualThread != null) {
+            try {
+                javaThread = (Thread) newVirtualThread.invoke(carrier);
+                javaThread.start();
+                return;
+            } catch (Throwable e) {
+                // fall back to platform threads from now on
+                newVirtualThread = null;
+            }
+        }
+
+        if (lightweight)
+            javaThread = new Thread(null, carrier, "TCB", stackSize);
+        else
+            javaThread = new Thread(carrier);
+        javaThread.start();
+    }
+
     /**
      * Return the TCB of the currently running thread.
      */
@@ -210,30 +338,37 @@ public final class TCB {
                 Thread.currentThread() == currentTCB.javaThread);
     }
 
+    /**
+     * Run this TCB on the current Java thread. Returns normally only once the
+     * TCB has been destroyed, with <tt>destroy()</tt> still waiting for its
+     * acknowledgement, which the carrier gives by calling
+     * <tt>currentTCB.interrupt()</tt>.
+     */
     private void threadroot() {
         // this should be running the current thread
         Lib.assertTrue(javaThread == Thread.currentThread());
 
-        if (!isFirstTCB) {
-            /* start() is waiting for us to wake it up, signalling that it's OK
-             * to context switch to us. We leave the running flag false so that
-             * we'll still run if a context switch happens before we go to
-             * sleep. All we have to do is wake up the current TCB and then
-             * wait to get woken up by contextSwitch() or destroy().
-             */
-
-            currentTCB.interrupt();
-            this.yield();
-        } else {
-            /* start() called us directly, so we just need to initialize
-             * a couple things.
-             */
-
-            currentTCB = this;
-            running = true;
-        }
-
         try {
+            if (!isFirstTCB) {
+                /* start() is waiting for us to wake it up, signalling that
+                 * it's OK to context switch to us. We leave the running flag
+                 * false so that we'll still run if a context switch happens
+                 * before we go to sleep. All we have to do is wake up the
+                 * current TCB and then wait to get woken up by
+                 * contextSwitch() or destroy().
+                 */
+
+                currentTCB.interrupt();
+                this.yield();
+            } else {
+                /* start() called us directly, so we just need to initialize
+                 * a couple things.
+                 */
+
+                currentTCB = this;
+                running = true;
+            }
+
             target.run();
 
             // no way out of here without going throw one of the catch blocks
@@ -245,14 +380,14 @@ public final class TCB {
                 privilege.exit(1);
             }
 
-            runningThreads.removeElement(this);
+            runningThreads.remove(this);
             if (runningThreads.isEmpty())
                 privilege.exit(0);
         } catch (Throwable e) {
             System.out.print("\n");
             e.printStackTrace();
 
-            runningThreads.removeElement(this);
+            runningThreads.remove(this);
             if (runningThreads.isEmpty())
                 privilege.exit(1);
             else
@@ -265,46 +400,89 @@ public final class TCB {
      * wait for another TCB to context switch to this TCB. Since this TCB
      * might get destroyed instead, we check the <tt>done</tt> flag after
      * waking up. If it is set, the TCB that woke us up is waiting for an
-     * acknowledgement in destroy(). Otherwise, we just set the current TCB to
-     * this TCB and return.
+     * acknowledgement in destroy(), which our carrier gives once the stack
+     * has unwound. Otherwise, we just set the current TCB to this TCB and
+     * return.
      */
     private void yield() {
         waitForInterrupt();
 
-        if (done) {
-            currentTCB.interrupt();
+        if (done)
             throw new ThreadDeath();
-        }
 
         currentTCB = this;
     }
 
     /**
-     * Waits on the monitor bound to this TCB until its <tt>running</tt> flag
-     * is set to <tt>true</tt>. <tt>waitForInterrupt()</tt> is used whenever a
-     * TCB needs to go to wait for its turn to run. This includes the ping-pong
-     * process of starting and destroying TCBs, as well as in context switching
-     * from this TCB to another. We don't rely on <tt>currentTCB</tt>, since it
-     * is updated by <tt>contextSwitch()</tt> before we get called.
+     * Parks until this TCB's <tt>running</tt> flag is set to <tt>true</tt>.
+     * <tt>waitForInterrupt()</tt> is used whenever a TCB needs to go to wait
+     * for its turn to run. This includes the ping-pong process of starting and
+     * destroying TCBs, as well as in context switching from this TCB to
+     * another. We don't rely on <tt>currentTCB</tt>, since it is updated by
+     * <tt>contextSwitch()</tt> before we get called.
+     *
+     * <p>
+     * <tt>running</tt> is volatile, so the waker's writes are visible once we
+     * see it set. An unpark that arrives before we park makes the park return
+     * at once, and a spurious return just goes round the loop again.
      */
-    private synchronized void waitForInterrupt() {
-        while (!running) {
-            try {
-                wait();
-            } catch (InterruptedException e) {
-            }
-        }
+    private void waitForInterrupt() {
+        while (!running)
+            LockSupport.park(this);
     }
 
     /**
      * Wake up this TCB by setting its <tt>running</tt> flag to <tt>true</tt>
-     * and signalling the monitor bound to it. Used in the ping-pong process of
-     * starting and destroying TCBs, as well as in context switching to this
-     * TCB.
+     * and unparking its thread. Used in the ping-pong process of starting and
+     * destroying TCBs, as well as in context switching to this TCB.
      */
-    private synchronized void interrupt() {
+    private void interrupt() {
         running = true;
-        notify();
+        LockSupport.unpark(javaThread);
+    }
+
+    /**
+     * The body of every Java thread created for a TCB. It runs one TCB after
+     * another: when its TCB is destroyed it joins <tt>idleCarriers</tt>, if
+     * there is room, before acknowledging the destroy, and then parks until
+     * <tt>start()</tt> hands it the next TCB. Otherwise the thread exits.
+     */
+    private static final class Carrier implements Runnable {
+        Carrier(TCB first) {
+            tcb = first;
+        }
+
+        public void run() {
+            javaThread = Thread.currentThread();
+
+            while (true) {
+                TCB doomed = tcb;
+                tcb = null;
+                doomed.threadroot();
+
+                boolean pooled = (numIdleCarriers < poolSize &&
+                        idleCarriers.offer(this));
+                if (pooled)
+                    numIdleCarriers++;
+                currentTCB.interrupt();
+
+                if (!pooled)
+                    return;
+                while (tcb == null)
+                    LockSupport.park(this);
+            }
+        }
+
+        /**
+         * Give this idle carrier the next TCB to run.
+         */
+        void carry(TCB next) {
+            tcb = next;
+            LockSupport.unpark(javaThread);
+        }
+
+        private volatile TCB tcb;
+        private volatile Thread javaThread;
     }
 
     private void associateThread(KThread thread) {
@@ -330,10 +508,57 @@ public final class TCB {
 
     /**
      * The maximum number of started, non-destroyed TCB's that can be in
-     * existence.
+     * existence, unless <tt>TCB.maxThreads</tt> or <tt>TCB.lightweight</tt>
+     * is set. See <tt>getMaxThreads()</tt> for the limit in force.
      */
     public static final int maxThreads = 250;
 
+    /**
+     * The limit in force on running TCBs, returned by
+     * <tt>getMaxThreads()</tt>.
+     */
+    private static int threadLimit = maxThreads;
+
+    /**
+     * The most idle carrier threads kept for reuse. Set by
+     * <tt>TCB.poolSize</tt>; 16 by default.
+     */
+    private static int poolSize;
+
+    /**
+     * Java threads whose TCBs have been destroyed, waiting to run new ones.
+     * Carriers add themselves while no Nachos thread is running, so this
+     * needs no interrupts disabled, only a thread-safe queue.
+     */
+    private static final Queue<Carrier> idleCarriers =
+            new ConcurrentLinkedQueue<Carrier>();
+
+    /**
+     * The number of carriers in <tt>idleCarriers</tt>, whose own
+     * <tt>size()</tt> walks the whole queue. A carrier counts itself in before
+     * waking the thread that destroyed its TCB, and <tt>start()</tt> only runs
+     * in a Nachos thread, so the two never update it at once.
+     */
+    private static int numIdleCarriers = 0;
+
+    /**
+     * <tt>true</tt> if TCBs run on virtual or small-stack threads rather than
+     * on ordinary platform threads.
+     */
+    private static boolean lightweight;
+
+    /**
+     * The stack size requested for lightweight TCBs that fall back to
+     * platform threads.
+     */
+    private static long stackSize;
+
+    /**
+     * Creates an unstarted virtual thread, or <tt>null</tt> if lightweight
+     * TCBs must use platform threads.
+     */
+    private static MethodHandle newVirtualThread = null;
+
     /**
      * A reference to the currently running TCB. It is initialized to
      * <tt>null</tt> when the <tt>TCB</tt> class is loaded, and then the first
@@ -350,18 +575,19 @@ public final class TCB {
     private static TCB currentTCB = null;
 
     /**
-     * A vector containing all <i>running</i> TCB objects. It is initialized to
-     * an empty vector when the <tt>TCB</tt> class is loaded. TCB objects are
+     * A set containing all <i>running</i> TCB objects. It is initialized to
+     * an empty set when the <tt>TCB</tt> class is loaded. TCB objects are
      * added only in <tt>start(Runnable)</tt>, which can only be invoked once
      * on each TCB object. TCB objects are removed only in each of the
      * <tt>catch</tt> clauses of <tt>threadroot()</tt>, one of which is always
      * invoked on thread termination. The maximum number of threads in
-     * <tt>runningThreads</tt> is limited to <tt>maxThreads</tt> by
+     * <tt>runningThreads</tt> is limited to <tt>threadLimit</tt> by
      * <tt>start(Runnable)</tt>. If <tt>threadroot()</tt> drops the number of
      * TCB objects in <tt>runningThreads</tt> to zero, Nachos exits, so once
-     * the first TCB is created, this vector is basically never empty.
+     * the first TCB is created, this set is basically never empty.
      */
-    private static Vector<TCB> runningThreads = new Vector<TCB>();
+    private static Set<TCB> runningThreads =
+            Collections.synchronizedSet(new HashSet<TCB>());
 
     private static Privilege privilege;
     private static KThread toBeDestroyed = null;
@@ -390,7 +616,7 @@ public final class TCB {
      * destroying a TCB, this is temporarily true for a thread other than that
      * of the current TCB.
      */
-    private boolean running = false;
+    private volatile boolean running = false;
 
     /**
      * Set to <tt>true</tt> by <tt>destroy()</tt>, so that when
@@ -402,7 +628,6 @@ public final class TCB {
     private KThread nachosThread = null;
     private boolean associated = false;
     private Runnable target;
-    private Runnable tcbTarget;
 
     private static class TCBPrivilege implements Privilege.TCBPrivilege {
         public void associateThread(KThread thread) {
@@ -13,6 +13,12 @@ import nachos.security.*;
  * interrupt to occur every time approximately 500 clock ticks pass. There is
  * a small degree of randomness here, so interrupts do not occur exactly every
  * 500 ticks.
+ *
+ * <p>
+ * If <tt>Timer.tickless</tt> is set, the timer does not interrupt
+ * periodically at all. Instead the kernel arms it with <tt>arm()</tt> to
+ * interrupt once, at the time of its choosing, and re-arms it as that time
+ * changes.
  */
 public final class Timer {
     /**
@@ -39,7 +45,9 @@ public final class Timer {
             }
         };
 
-        scheduleInterrupt();
+        tickless = Config.getBoolean("Timer.tickless", false);
+        if (!tickless)
+            scheduleInterrupt();
     }
 
     /**
@@ -52,6 +60,40 @@ public final class Timer {
         this.handler = handler;
     }
 
+    /**
+     * Return whether this timer is in tickless mode, only interrupting when
+     * armed.
+     *
+     * @return <tt>true</tt> if <tt>Timer.tickless</tt> is set.
+     */
+    public boolean isTickless() {
+        return tickless;
+    }
+
+    /**
+     * Arm the timer to interrupt once, <i>delay</i> ticks from now, replacing
+     * any interrupt it is already armed for. Only allowed in tickless mode.
+     *
+     * @param    delay    the number of ticks until the interrupt; at least
+     * 1.
+     */
+    public void arm(long delay) {
+        Lib.assertTrue(tickless && delay > 0);
+
+        if (!privilege.interrupt.reschedule(armed, delay))
+            armed = privilege.interrupt.schedule(delay, "timer", timerInterrupt);
+    }
+
+    /**
+     * Disarm the timer, so that it does not interrupt until armed again. Only
+     * allowed in tickless mode.
+     */
+    public void disarm() {
+        Lib.assertTrue(tickless);
+
+        privilege.interrupt.cancel(armed);
+    }
+
     /**
      * Get the current time.
      *
@@ -62,7 +104,8 @@ public final class Timer {
     }
 
     private void timerInterrupt() {
-        scheduleInterrupt();
+        if (!tickless)
+            scheduleInterrupt();
         scheduleAutoGraderInterrupt();
 
         lastTimerInterrupt = getTime();
@@ -82,6 +125,10 @@ public final class Timer {
         privilege.interrupt.schedule(1, "timerAG", autoGraderInterrupt);
     }
 
+    private boolean tickless;
+    /** The handle of the interrupt the timer is armed for, in tickless mode. */
+    private long armed = -1;
+
     private long lastTimerInterrupt;
     private Runnable timerInterrupt;
     private Runnable autoGraderInterrupt;
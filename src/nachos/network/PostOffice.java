@@ -14,6 +14,12 @@ import nachos.threads.*;
  * from the network and to place them in the appropriate queues. This cannot
  * be done in the receive interrupt handler because each queue (implemented
  * with a <tt>SynchList</tt>) is protected by a lock.
+ *
+ * <p>
+ * Each queue holds any number of messages, unless
+ * <tt>PostOffice.queueCapacity</tt> is set. Then a message for a port whose
+ * queue is full is dropped, like one lost by the network, rather than holding
+ * up delivery to every other port.
  */
 public class PostOffice {
     /**
@@ -26,9 +32,12 @@ public class PostOffice {
 	messageSent = new Semaphore(0);
 	sendLock = new Lock();
 
-	queues = new SynchList[MailMessage.portLimit];
+	int queueCapacity = Config.getInteger("PostOffice.queueCapacity",
+					       Integer.MAX_VALUE);
+
+	queues = newQueues(MailMessage.portLimit);
 	for (int i=0; i<queues.length; i++)
-	    queues[i] = new SynchList();
+	    queues[i] = new SynchList<MailMessage>(queueCapacity);
 
 	Runnable receiveHandler = new Runnable() {
 	    public void run() { receiveInterrupt(); }
@@ -58,7 +67,7 @@ public class PostOffice {
 
 	Lib.debug(dbgNet, "waiting for mail on port " + port);
 
-	MailMessage mail = (MailMessage) queues[port].removeFirst();
+	MailMessage mail = queues[port].removeFirst();
 
 	if (Lib.test(dbgNet))
 	    System.out.println("got mail on port " + port + ": " + mail);
@@ -88,8 +97,11 @@ public class PostOffice {
 		System.out.println("delivering mail to port " + mail.dstPort
 				   + ": " + mail);
 
-	    // atomically add message to the mailbox and wake a waiting thread
-	    queues[mail.dstPort].add(mail);
+	    // atomically add message to the mailbox and wake a waiting thread,
+	    // or drop it if the mailbox is full
+	    if (!queues[mail.dstPort].offer(mail))
+		Lib.debug(dbgNet, "mailbox full, dropped mail to port "
+			  + mail.dstPort);
 	}
     }
 
@@ -125,7 +137,16 @@ public class PostOffice {
 	messageSent.V();
     }
 
-    private SynchList[] queues;
+    /**
+     * Allocate an array of <i>n</i> message queues. Java cannot create an
+     * array of a generic type, so this casts an array of wildcard ones.
+     */
+    @SuppressWarnings("unchecked")
+    private static SynchList<MailMessage>[] newQueues(int n) {
+	return (SynchList<MailMessage>[]) new SynchList<?>[n];
+    }
+
+    private SynchList<MailMessage>[] queues;
     private Semaphore messageReceived;	// V'd when a message can be dequeued
     private Semaphore messageSent;	// V'd when a message can be queued
     private Lock sendLock;
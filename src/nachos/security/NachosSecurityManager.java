@@ -209,6 +209,15 @@ public class NachosSecurityManager extends SecurityManager {
 	    }
 	}
 
+	// the JVM creates the carrier threads of virtual threads, which
+	// lightweight TCBs run on, whenever it needs more, from whichever
+	// thread happens to need one
+	if (perm instanceof RuntimePermission &&
+	    (name.equals("modifyThreadGroup") || name.equals("modifyThread") ||
+	     name.equals("enableContextClassLoaderOverride")) &&
+	    creatingCarrierThread())
+	    return;
+
 	// some are always allowed
 	if (perm instanceof PropertyPermission) {
 	    // allowed to read properties
@@ -276,6 +285,21 @@ public class NachosSecurityManager extends SecurityManager {
 	verifyPrivilege(perm);
     }
 
+    /**
+     * Test if a permission is being checked while the JVM constructs a
+     * carrier thread for its virtual threads.
+     *
+     * @return	<tt>true</tt> if a carrier thread is being constructed.
+     */
+    private boolean creatingCarrierThread() {
+	Class[] context = getClassContext();
+	for (int i=0; i<context.length; i++) {
+	    if (context[i].getName().equals("jdk.internal.misc.CarrierThread"))
+		return true;
+	}
+	return false;
+    }
+
     /**
      * Called by the <tt>java.lang.Thread</tt> constructor to determine a
      * thread group for a child thread of the current thread. The caller must
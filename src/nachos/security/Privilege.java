@@ -147,8 +147,47 @@ public abstract class Privilege {
 	 * @param	type	a name for the type of interrupt being
 	 *			scheduled.
 	 * @param	handler	the interrupt handler to call.
+	 * @return	a handle for <tt>cancel()</tt> and <tt>reschedule()</tt>,
+	 *		never 0.
 	 */
-	public void schedule(long when, String type, Runnable handler);
+	public long schedule(long when, String type, Runnable handler);
+
+	/**
+	 * Cancel a pending interrupt.
+	 *
+	 * @param	handle	the handle returned when the interrupt was
+	 *			scheduled.
+	 * @return	<tt>true</tt> if the interrupt was still pending, or
+	 *		<tt>false</tt> if it already occurred or was cancelled.
+	 */
+	public boolean cancel(long handle);
+
+	/**
+	 * Move a pending interrupt so that it occurs <i>when</i> ticks from
+	 * now. It is ordered as if it had just been scheduled.
+	 *
+	 * @param	handle	the handle returned when the interrupt was
+	 *			scheduled.
+	 * @param	when	the number of ticks until the interrupt should
+	 *			occur.
+	 * @return	<tt>true</tt> if the interrupt was still pending, or
+	 *		<tt>false</tt> if it already occurred or was cancelled.
+	 */
+	public boolean reschedule(long handle, long when);
+
+	/**
+	 * Schedule an interrupt from a thread other than a Nachos thread, such
+	 * as a device thread that has received data from the host. The
+	 * interrupt is scheduled <i>when</i> ticks after the next tick.
+	 * Unlike the other methods, this one may be called from any thread.
+	 *
+	 * @param	when	the number of ticks after the next tick at which the
+	 *			interrupt should occur.
+	 * @param	type	a name for the type of interrupt being
+	 *			scheduled.
+	 * @param	handler	the interrupt handler to call.
+	 */
+	public void post(long when, String type, Runnable handler);
 	
 	/**
 	 * Advance the simulated time.
@@ -158,6 +197,35 @@ public abstract class Privilege {
 	 *		MIPS user code.
 	 */
 	public void tick(boolean inKernelMode);
+
+	/**
+	 * Advance the simulated time by <i>count</i> ticks at once, checking
+	 * for due interrupts only afterwards. Used by execution engines that
+	 * account for a whole block of instructions in one step.
+	 *
+	 * @param inKernelMode	<tt>true</tt> if the current thread is running kernel
+	 *		code, <tt>false</tt> if the current thread is running
+	 *		MIPS user code.
+	 * @param count	the number of ticks to advance, at least 1.
+	 */
+	public void tick(boolean inKernelMode, int count);
+
+	/**
+	 * Return the number of user instructions after which the next pending
+	 * interrupt becomes due. A processor may run up to this many
+	 * instructions before advancing the simulated time for all of them at
+	 * once with <tt>tick(false, count)</tt>.
+	 *
+	 * @return	the event horizon, at least 1.
+	 */
+	public long horizon();
+
+	/**
+	 * Advance the simulated time as if the kernel had spun until just
+	 * before the next pending interrupt becomes due. Used by the idle
+	 * thread when no thread is ready to run.
+	 */
+	public void idle();
     }
 
     /**
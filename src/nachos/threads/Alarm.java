@@ -1,12 +1,26 @@
 package nachos.threads;
 
-import nachos.machine.Machine;
+import nachos.machine.*;
 
-import java.util.LinkedList;
+import java.util.Arrays;
 
 /**
  * Uses the hardware timer to provide preemption, and to allow threads to sleep
  * until a certain time.
+ *
+ * <p>
+ * Sleeping threads and pending timeouts are kept in one binary min-heap,
+ * stored in parallel arrays and ordered by wake time, then by arrival, so
+ * that waiting, waking and cancelling all take O(log n) however many threads
+ * are asleep. <tt>waitUntil()</tt> allocates nothing.
+ *
+ * <p>
+ * If the timer is tickless (<tt>Timer.tickless</tt>), the alarm arms it for
+ * the earlier of the next wake time and, if any other thread is ready, the
+ * end of the current thread's quantum of <tt>Alarm.quantum</tt> ticks (500
+ * by default). A thread running alone, or an idle machine with nothing
+ * asleep, takes no timer interrupts at all, and sleepers wake exactly when
+ * they are due.
  */
 public class Alarm {
     /**
@@ -17,7 +31,11 @@ public class Alarm {
      * alarm.
      */
     public Alarm() {
-        waitStructList = new LinkedList<>();
+        tickless = Machine.timer().isTickless();
+        quantum = Config.getInteger("Alarm.quantum", Stats.TimerTicks);
+        Lib.assertTrue(quantum > 0);
+        quantumEnd = Machine.timer().getTime() + quantum;
+
         Machine.timer().setInterruptHandler(new Runnable() {
             public void run() {
                 timerInterrupt();
@@ -27,25 +45,34 @@ public class Alarm {
 
     /**
      * The timer interrupt handler. This is called by the machine's timer
-     * periodically (approximately every 500 clock ticks). Causes the current
-     * thread to yield, forcing a context switch if there is another thread
-     * that should be run.
+     * periodically (approximately every 500 clock ticks). Wakes every thread
+     * whose time has come and runs the handlers of expired timeouts, in the
+     * order they are due, then causes the current thread to yield, forcing a
+     * context switch if there is another thread that should be run, unless
+     * the scheduler would rather let it keep the processor. If no other
+     * thread is ready, there is nothing to yield to.
      */
     public void timerInterrupt() {
-        // 当前时间
         long time = Machine.timer().getTime();
-        // 使用循环，处理需要唤醒多个线程的情况
-        while (!waitStructList.isEmpty()) {
-            WaitStruct waitStruct = waitStructList.getFirst();
-            // 如果这个线程不需要唤醒，则后面的也不需要。退出循环
-            if (waitStruct.wakeTime > time) {
-                break;
-            }
-            // 唤醒这个线程
-            waitStruct.thread.ready();
-            waitStructList.removeFirst();
+        armedTime = never;
+
+        while (size > 0 && wakeTimes[0] <= time) {
+            Object sleeper = sleepers[0];
+            removeAt(0);
+
+            if (sleeper instanceof Timeout)
+                ((Timeout) sleeper).handler.run();
+            else
+                ((KThread) sleeper).ready();
+        }
+
+        if (KThread.getNumReadyThreads() > 0 &&
+                ThreadedKernel.scheduler.shouldPreempt()) {
+            KThread.preempt();
+        } else {
+            quantumEnd = time + quantum;
+            reprogram();
         }
-        KThread.yield();
     }
 
     /**
@@ -62,44 +89,255 @@ public class Alarm {
      * @see nachos.machine.Timer#getTime()
      */
     public void waitUntil(long x) {
-        // 计算时间
-        long wakeTime = Machine.timer().getTime() + x;
-        // 构造结构体
-        WaitStruct waitStruct = new WaitStruct();
-        waitStruct.wakeTime = wakeTime;
-        waitStruct.thread = KThread.currentThread();
-
-        // 关中断
         boolean intStatus = Machine.interrupt().disable();
 
-        // 插入队列，同时保证队列依旧有序
-        boolean insert = false;
-        for (int i = 0, size = waitStructList.size(); i < size; i++) {
-            if (waitStructList.get(i).wakeTime > wakeTime) {
-                waitStructList.add(i, waitStruct);
-                insert = true;
-                break;
+        insert(Machine.timer().getTime() + x, KThread.currentThread());
+        KThread.sleep();
+
+        Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Arrange for <tt>handler</tt> to be run in the timer interrupt handler
+     * during the first timer interrupt at least <i>x</i> ticks from now,
+     * unless the returned timeout is cancelled first. The handler runs with
+     * interrupts disabled, so it must not block; it may wake threads.
+     *
+     * @param x       the minimum number of clock ticks to wait.
+     * @param handler the action to run when the time is up.
+     * @return the pending timeout.
+     */
+    public Timeout schedule(long x, Runnable handler) {
+        Lib.assertTrue(handler != null);
+
+        boolean intStatus = Machine.interrupt().disable();
+
+        Timeout timeout = new Timeout(handler);
+        insert(Machine.timer().getTime() + x, timeout);
+        reprogram();
+
+        Machine.interrupt().restore(intStatus);
+        return timeout;
+    }
+
+    /**
+     * An action scheduled by <tt>schedule()</tt> to run when its time is up.
+     */
+    public class Timeout {
+        private Timeout(Runnable handler) {
+            this.handler = handler;
+        }
+
+        /**
+         * Cancel this timeout, if its handler has not run yet.
+         *
+         * @return <tt>true</tt> if the timeout was pending and will now never
+         * run, or <tt>false</tt> if its handler has already run or it was
+         * already cancelled.
+         */
+        public boolean cancel() {
+            boolean intStatus = Machine.interrupt().disable();
+
+            boolean pending = (index >= 0);
+            if (pending) {
+                removeAt(index);
+                reprogram();
             }
+
+            Machine.interrupt().restore(intStatus);
+            return pending;
         }
-        if (!insert) {
-            waitStructList.add(waitStruct);
+
+        /**
+         * Return whether this timeout has neither run nor been cancelled.
+         *
+         * @return <tt>true</tt> if this timeout is still pending.
+         */
+        public boolean isPending() {
+            return index >= 0;
         }
 
-        // 挂起线程
-        KThread.sleep();
+        private final Runnable handler;
+        /** The position of this timeout in the heap, or -1 if not in it. */
+        private int index = -1;
+    }
 
-        // 恢复中断
-        Machine.interrupt().restore(intStatus);
+    /**
+     * Called by <tt>KThread</tt> when a thread becomes ready, which may mean
+     * the current thread's quantum now has to be enforced.
+     */
+    void threadReady() {
+        if (tickless)
+            reprogram();
     }
 
-    // 等待队列（有序）
-    private final LinkedList<WaitStruct> waitStructList;
+    /**
+     * Called by <tt>KThread</tt> when a thread is given the processor, which
+     * starts a new quantum.
+     */
+    void threadDispatched() {
+        if (tickless) {
+            quantumEnd = Machine.timer().getTime() + quantum;
+            reprogram();
+        }
+    }
 
-    // 描述唤醒时间和等待线程的结构体
-    private static class WaitStruct {
-        // 唤醒时间（绝对时间）
-        long wakeTime;
-        // 关联的线程
-        KThread thread;
+    /**
+     * In tickless mode, arm the timer for the next time the alarm has to act,
+     * if that has changed.
+     */
+    private void reprogram() {
+        if (!tickless)
+            return;
+
+        long next = (size > 0) ? wakeTimes[0] : never;
+        if (KThread.getNumReadyThreads() > 0)
+            next = Math.min(next, quantumEnd);
+
+        if (next == armedTime)
+            return;
+
+        armedTime = next;
+        if (next == never)
+            Machine.timer().disarm();
+        else
+            Machine.timer().arm(Math.max(next - Machine.timer().getTime(), 1));
     }
+
+    private void insert(long wakeTime, Object sleeper) {
+        if (size == sleepers.length) {
+            wakeTimes = Arrays.copyOf(wakeTimes, size * 2);
+            sequences = Arrays.copyOf(sequences, size * 2);
+            sleepers = Arrays.copyOf(sleepers, size * 2);
+        }
+
+        put(size, wakeTime, ++arrivals, sleeper);
+        siftUp(size++);
+    }
+
+    private void removeAt(int i) {
+        if (sleepers[i] instanceof Timeout)
+            ((Timeout) sleepers[i]).index = -1;
+
+        size--;
+        if (i != size) {
+            put(i, wakeTimes[size], sequences[size], sleepers[size]);
+            if (i > 0 && before(i, (i - 1) / 2))
+                siftUp(i);
+            else
+                siftDown(i);
+        }
+        sleepers[size] = null;
+    }
+
+    /**
+     * Return whether the sleeper at <i>i</i> is due before the one at
+     * <i>j</i>.
+     */
+    private boolean before(int i, int j) {
+        if (wakeTimes[i] != wakeTimes[j])
+            return wakeTimes[i] < wakeTimes[j];
+        return sequences[i] < sequences[j];
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!before(i, parent))
+                break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size)
+                break;
+            if (child + 1 < size && before(child + 1, child))
+                child++;
+            if (!before(child, i))
+                break;
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        long wakeTime = wakeTimes[i], sequence = sequences[i];
+        Object sleeper = sleepers[i];
+        put(i, wakeTimes[j], sequences[j], sleepers[j]);
+        put(j, wakeTime, sequence, sleeper);
+    }
+
+    private void put(int i, long wakeTime, long sequence, Object sleeper) {
+        wakeTimes[i] = wakeTime;
+        sequences[i] = sequence;
+        sleepers[i] = sleeper;
+        if (sleeper instanceof Timeout)
+            ((Timeout) sleeper).index = i;
+    }
+
+    /**
+     * Test if this module is working.
+     */
+    public static void selfTest() {
+        final Alarm alarm = ThreadedKernel.alarm;
+        final int[] order = new int[3];
+        final int[] woken = new int[1];
+
+        for (int i = 0; i < order.length; i++) {
+            final int id = i;
+            new KThread(new Runnable() {
+                public void run() {
+                    alarm.waitUntil(3000 - id * 1000);
+                    order[woken[0]++] = id;
+                }
+            }).setName("sleeper " + i).fork();
+        }
+
+        final boolean[] fired = new boolean[2];
+        Timeout cancelled = alarm.schedule(1000, new Runnable() {
+            public void run() {
+                fired[0] = true;
+            }
+        });
+        alarm.schedule(1000, new Runnable() {
+            public void run() {
+                fired[1] = true;
+            }
+        });
+        Lib.assertTrue(cancelled.cancel() && !cancelled.cancel());
+
+        Semaphore semaphore = new Semaphore(0);
+        long start = Machine.timer().getTime();
+        Lib.assertTrue(!semaphore.P(2000));
+        Lib.assertTrue(Machine.timer().getTime() - start >= 2000);
+
+        alarm.waitUntil(2000);
+        Lib.assertTrue(woken[0] == 3 && order[0] == 2 && order[1] == 1 &&
+                order[2] == 0);
+        Lib.assertTrue(!fired[0] && fired[1]);
+    }
+
+    /**
+     * The heap: entry <i>i</i> is due at <tt>wakeTimes[i]</tt>, arrived as
+     * number <tt>sequences[i]</tt>, and is either a sleeping
+     * <tt>KThread</tt> or a <tt>Timeout</tt>.
+     */
+    private long[] wakeTimes = new long[16];
+    private long[] sequences = new long[16];
+    private Object[] sleepers = new Object[16];
+    private int size = 0;
+    private long arrivals = 0;
+
+    private final boolean tickless;
+    private final int quantum;
+    /** When the current thread's quantum ends, in tickless mode. */
+    private long quantumEnd;
+    /** The time the timer is armed for, or <tt>never</tt>. */
+    private long armedTime = never;
+
+    private static final long never = Long.MAX_VALUE;
 }
@@ -0,0 +1,296 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.Arrays;
+
+/**
+ * A kernel that measures the configured scheduler under a synthetic load.
+ * Select it with <tt>Kernel.kernel = nachos.threads.BenchmarkKernel</tt> and
+ * run it once per <tt>ThreadedKernel.scheduler</tt> to compare schedulers;
+ * with a fixed <tt>-s</tt> seed, everything but the host timings is
+ * reproducible.
+ *
+ * <p>
+ * The load is a mix of three kinds of threads, all running until
+ * <tt>BenchmarkKernel.duration</tt> ticks have passed:
+ *
+ * <ul>
+ * <li><tt>BenchmarkKernel.cpuThreads</tt> CPU-bound threads, which do nothing
+ * but work.
+ * <li><tt>BenchmarkKernel.lockThreads</tt> threads that repeatedly acquire
+ * one of <tt>BenchmarkKernel.locks</tt> locks at random, work for
+ * <tt>BenchmarkKernel.criticalUnits</tt> units while holding it, and work as
+ * long again outside it.
+ * <li><tt>BenchmarkKernel.sleepThreads</tt> interactive threads that sleep on
+ * the alarm for around <tt>BenchmarkKernel.sleepTicks</tt> ticks and then
+ * respond with <tt>BenchmarkKernel.burstUnits</tt> units of work. If
+ * <tt>BenchmarkKernel.sleeperPriority</tt> is given, they run at that
+ * priority.
+ * </ul>
+ *
+ * <p>
+ * A unit of work is one interrupt disable and restore, which takes the time
+ * of a kernel tick. When the load is done, the kernel prints the throughput
+ * of each kind of thread, the tail latencies of waking up and of acquiring a
+ * lock, Jain's fairness index of the CPU-bound and the lock-contending
+ * threads, and the host time spent in the scheduler's ready queue per
+ * dispatch.
+ */
+public class BenchmarkKernel extends ThreadedKernel {
+    /**
+     * Allocate a new benchmark kernel.
+     */
+    public BenchmarkKernel() {
+        super();
+    }
+
+    /**
+     * Initialize this kernel, and read the benchmark parameters.
+     */
+    public void initialize(String[] args) {
+        super.initialize(args);
+
+        duration = Config.getInteger("BenchmarkKernel.duration", 200000);
+        cpuThreads = Config.getInteger("BenchmarkKernel.cpuThreads", 4);
+        lockThreads = Config.getInteger("BenchmarkKernel.lockThreads", 4);
+        sleepThreads = Config.getInteger("BenchmarkKernel.sleepThreads", 4);
+        numLocks = Config.getInteger("BenchmarkKernel.locks", 1);
+        criticalUnits = Config.getInteger("BenchmarkKernel.criticalUnits", 20);
+        sleepTicks = Config.getInteger("BenchmarkKernel.sleepTicks", 2000);
+        burstUnits = Config.getInteger("BenchmarkKernel.burstUnits", 10);
+
+        Lib.assertTrue(duration > 0 && cpuThreads >= 0 && lockThreads >= 0 &&
+                sleepThreads >= 0 && numLocks > 0 && criticalUnits > 0 &&
+                sleepTicks > 1 && burstUnits > 0);
+
+        if (Config.getString("BenchmarkKernel.sleeperPriority") != null)
+            sleeperPriority =
+                    Config.getInteger("BenchmarkKernel.sleeperPriority");
+
+        KThread.timeReadyQueue();
+    }
+
+    /**
+     * The benchmark has its own load, so this kernel runs no self tests.
+     */
+    public void selfTest() {
+    }
+
+    /**
+     * Run the load and print the results.
+     */
+    public void run() {
+        locks = new Lock[numLocks];
+        for (int i = 0; i < numLocks; i++)
+            locks[i] = new Lock();
+
+        Worker[] workers = new Worker[cpuThreads + lockThreads + sleepThreads];
+        for (int i = 0; i < workers.length; i++) {
+            int kind;
+            if (i < cpuThreads)
+                kind = cpuBound;
+            else if (i < cpuThreads + lockThreads)
+                kind = lockBound;
+            else
+                kind = sleeper;
+
+            workers[i] = new Worker(kind);
+            workers[i].thread = new KThread(workers[i]);
+            workers[i].thread.setName(kindNames[kind] + " " + i);
+
+            if (kind == sleeper && sleeperPriority >= 0) {
+                boolean intStatus = Machine.interrupt().disable();
+                scheduler.setPriority(workers[i].thread, sleeperPriority);
+                Machine.interrupt().restore(intStatus);
+            }
+        }
+
+        long startTicks = Machine.timer().getTime();
+        end = startTicks + duration;
+        long startNanos = ThreadAccounting.getReadyQueueNanoseconds();
+        int startDispatches = KThread.currentThread().getNumDispatches();
+
+        for (int i = 0; i < workers.length; i++)
+            workers[i].thread.fork();
+        for (int i = 0; i < workers.length; i++)
+            workers[i].thread.join();
+
+        long nanos = ThreadAccounting.getReadyQueueNanoseconds() - startNanos;
+        long ticks = Machine.timer().getTime() - startTicks;
+        long dispatches =
+                KThread.currentThread().getNumDispatches() - startDispatches;
+        for (int i = 0; i < workers.length; i++)
+            dispatches += workers[i].thread.getNumDispatches();
+
+        report(workers, ticks, nanos, dispatches);
+    }
+
+    private void report(Worker[] workers, long ticks, long nanos,
+                        long dispatches) {
+        long[] cpuUnits = new long[cpuThreads];
+        long[] lockOps = new long[lockThreads];
+        long totalUnits = 0, totalOps = 0, totalWakeups = 0;
+
+        for (int i = 0; i < workers.length; i++) {
+            Worker worker = workers[i];
+            totalUnits += worker.units;
+            if (worker.kind == cpuBound)
+                cpuUnits[i] = worker.units;
+            else if (worker.kind == lockBound)
+                lockOps[i - cpuThreads] = worker.operations;
+            else
+                totalWakeups += worker.operations;
+        }
+        totalOps = sum(lockOps);
+
+        System.out.println("Benchmark: " + scheduler.getClass().getName() +
+                ", " + cpuThreads + " cpu, " + lockThreads + " lock, " +
+                sleepThreads + " sleep threads, " + ticks + " ticks");
+        System.out.println("\tthroughput (per 1000 ticks): work " +
+                perThousand(totalUnits, ticks) + ", lock ops " +
+                perThousand(totalOps, ticks) + ", wakeups " +
+                perThousand(totalWakeups, ticks));
+        System.out.println("\twakeup latency: " + wakeupLatency);
+        System.out.println("\tlock wait: " + lockLatency);
+        System.out.println("\tfairness: cpu " + fairness(cpuUnits) +
+                ", lock " + fairness(lockOps));
+        System.out.println("\tdispatches " + dispatches + ", " +
+                ((dispatches == 0) ? 0 : nanos / dispatches) +
+                " host ns in the ready queue per dispatch");
+    }
+
+    private static String perThousand(long count, long ticks) {
+        return String.format("%.2f", (ticks == 0) ? 0.0 : count * 1000.0 / ticks);
+    }
+
+    /**
+     * Return Jain's fairness index of the specified amounts: 1 if they are
+     * all equal, down to <i>1/n</i> if one thread got everything.
+     */
+    private static String fairness(long[] amounts) {
+        if (amounts.length == 0)
+            return "-";
+
+        double sum = 0, sumOfSquares = 0;
+        for (long amount : amounts) {
+            sum += amount;
+            sumOfSquares += (double) amount * amount;
+        }
+        if (sumOfSquares == 0)
+            return "-";
+
+        return String.format("%.4f", sum * sum / (amounts.length * sumOfSquares));
+    }
+
+    private static long sum(long[] amounts) {
+        long sum = 0;
+        for (long amount : amounts)
+            sum += amount;
+        return sum;
+    }
+
+    /**
+     * Do <i>units</i> units of work, each the time of one kernel tick.
+     */
+    private static void work(int units) {
+        for (int i = 0; i < units; i++) {
+            boolean intStatus = Machine.interrupt().disable();
+            Machine.interrupt().restore(intStatus);
+        }
+    }
+
+    private class Worker implements Runnable {
+        Worker(int kind) {
+            this.kind = kind;
+        }
+
+        public void run() {
+            while (Machine.timer().getTime() < end) {
+                switch (kind) {
+                    case cpuBound:
+                        work(1);
+                        units++;
+                        break;
+
+                    case lockBound:
+                        Lock lock = locks[Lib.random(numLocks)];
+
+                        long requested = Machine.timer().getTime();
+                        lock.acquire();
+                        lockLatency.add(Machine.timer().getTime() - requested);
+                        work(criticalUnits);
+                        lock.release();
+
+                        work(criticalUnits);
+                        units += 2 * criticalUnits;
+                        operations++;
+                        break;
+
+                    case sleeper:
+                        long x = sleepTicks / 2 + Lib.random(sleepTicks);
+                        long wakeTime = Machine.timer().getTime() + x;
+                        alarm.waitUntil(x);
+                        wakeupLatency.add(Machine.timer().getTime() - wakeTime);
+
+                        work(burstUnits);
+                        units += burstUnits;
+                        operations++;
+                        break;
+                }
+            }
+        }
+
+        private final int kind;
+        private KThread thread;
+        private long units = 0;
+        /** Lock acquisitions, or wakeups. */
+        private long operations = 0;
+    }
+
+    /**
+     * A growable set of latency samples, in ticks.
+     */
+    private static class Latencies {
+        void add(long ticks) {
+            if (size == samples.length)
+                samples = Arrays.copyOf(samples, size * 2);
+            samples[size++] = ticks;
+        }
+
+        public String toString() {
+            if (size == 0)
+                return "no samples";
+
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+
+            return size + " samples, mean " + sum(sorted) / size +
+                    ", p50 " + percentile(sorted, 0.50) +
+                    ", p95 " + percentile(sorted, 0.95) +
+                    ", p99 " + percentile(sorted, 0.99) +
+                    ", max " + sorted[size - 1];
+        }
+
+        private static long percentile(long[] sorted, double fraction) {
+            int index = (int) Math.ceil(fraction * sorted.length) - 1;
+            return sorted[Math.max(index, 0)];
+        }
+
+        private long[] samples = new long[64];
+        private int size = 0;
+    }
+
+    private static final int cpuBound = 0, lockBound = 1, sleeper = 2;
+    private static final String[] kindNames = {"cpu", "lock", "sleep"};
+
+    private int duration;
+    private int cpuThreads, lockThreads, sleepThreads;
+    private int numLocks, criticalUnits, sleepTicks, burstUnits;
+    private int sleeperPriority = -1;
+
+    private long end;
+    private Lock[] locks;
+    private final Latencies wakeupLatency = new Latencies();
+    private final Latencies lockLatency = new Latencies();
+}
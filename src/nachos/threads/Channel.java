@@ -0,0 +1,214 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A <i>channel</i> carries 32-bit words from any number of sending threads to
+ * any number of receiving threads through a bounded buffer. Unlike a
+ * <tt>Communicator</tt>, a sender does not wait for a receiver unless the
+ * buffer is full, and a receiver only waits if it is empty; words are
+ * received in the order they were sent.
+ *
+ * <p>
+ * Waiting threads sleep on condition variables, so a thread that cannot make
+ * progress uses no ticks until another thread makes room or sends something.
+ * <tt>sendAll()</tt> and <tt>drainTo()</tt> move as many words as fit under
+ * one acquisition of the lock.
+ */
+public class Channel {
+    /**
+     * Allocate a new channel.
+     *
+     * @param capacity the most words the channel can hold before senders
+     *                 have to wait.
+     */
+    public Channel(int capacity) {
+        Lib.assertTrue(capacity > 0);
+
+        buffer = new int[capacity];
+        lock = new Lock();
+        notEmpty = new Condition2(lock);
+        notFull = new Condition2(lock);
+    }
+
+    /**
+     * Put <i>word</i> in the channel, waiting for room if it is full.
+     *
+     * @param word the integer to send.
+     */
+    public void send(int word) {
+        lock.acquire();
+
+        while (count == buffer.length)
+            notFull.sleep();
+
+        buffer[(head + count) % buffer.length] = word;
+        count++;
+        notEmpty.wake();
+
+        lock.release();
+    }
+
+    /**
+     * Take the oldest word out of the channel, waiting for one if it is empty.
+     *
+     * @return the integer received.
+     */
+    public int receive() {
+        lock.acquire();
+
+        while (count == 0)
+            notEmpty.sleep();
+
+        int word = buffer[head];
+        head = (head + 1) % buffer.length;
+        count--;
+        notFull.wake();
+
+        lock.release();
+        return word;
+    }
+
+    /**
+     * Put every word of <i>words</i> in the channel, in order, filling it as
+     * far as it has room and waiting whenever it is full. Words sent by other
+     * threads meanwhile may come between them.
+     *
+     * @param words the integers to send.
+     */
+    public void sendAll(int[] words) {
+        lock.acquire();
+
+        int sent = 0;
+        while (sent < words.length) {
+            while (count == buffer.length)
+                notFull.sleep();
+
+            int tail = (head + count) % buffer.length;
+            int n = Math.min(words.length - sent, buffer.length - count);
+            n = Math.min(n, buffer.length - tail);
+
+            System.arraycopy(words, sent, buffer, tail, n);
+            count += n;
+            sent += n;
+            wake(notEmpty, n);
+        }
+
+        lock.release();
+    }
+
+    /**
+     * Take as many words out of the channel as fit in <i>words</i>, oldest
+     * first, waiting only if the channel is empty.
+     *
+     * @param words the array to receive into.
+     * @return the number of words received, at least one unless
+     * <i>words</i> is empty.
+     */
+    public int drainTo(int[] words) {
+        if (words.length == 0)
+            return 0;
+
+        lock.acquire();
+
+        while (count == 0)
+            notEmpty.sleep();
+
+        int received = 0;
+        while (count > 0 && received < words.length) {
+            int n = Math.min(words.length - received, count);
+            n = Math.min(n, buffer.length - head);
+
+            System.arraycopy(buffer, head, words, received, n);
+            head = (head + n) % buffer.length;
+            count -= n;
+            received += n;
+        }
+        wake(notFull, received);
+
+        lock.release();
+        return received;
+    }
+
+    /**
+     * Return the number of words in the channel, not yet received.
+     *
+     * @return the number of words buffered.
+     */
+    public int size() {
+        lock.acquire();
+        int size = count;
+        lock.release();
+        return size;
+    }
+
+    /**
+     * Wake the threads waiting on <i>condition</i> after <i>n</i> words or
+     * slots became available: one thread for one, or all of them for more,
+     * since more than one may now be able to proceed.
+     */
+    private static void wake(Condition2 condition, int n) {
+        if (n == 1)
+            condition.wake();
+        else if (n > 1)
+            condition.wakeAll();
+    }
+
+    /**
+     * Test if this module is working.
+     */
+    public static void selfTest() {
+        final Channel channel = new Channel(4);
+        final int senders = 3, words = 100;
+
+        for (int i = 0; i < senders; i++) {
+            final int id = i;
+            new KThread(new Runnable() {
+                public void run() {
+                    if (id == 0) {
+                        int[] batch = new int[words];
+                        for (int j = 0; j < words; j++)
+                            batch[j] = j;
+                        channel.sendAll(batch);
+                    } else {
+                        for (int j = 0; j < words; j++)
+                            channel.send(id * words + j);
+                    }
+                }
+            }).setName("sender " + i).fork();
+        }
+
+        // the next word expected from each sender, which sends in order
+        int[] next = new int[senders];
+        int[] batch = new int[5];
+
+        int received = 0;
+        while (received < senders * words) {
+            int n;
+            if (received % 2 == 0) {
+                n = channel.drainTo(batch);
+            } else {
+                batch[0] = channel.receive();
+                n = 1;
+            }
+
+            for (int j = 0; j < n; j++) {
+                int id = batch[j] / words;
+                Lib.assertTrue(batch[j] % words == next[id]++);
+            }
+            received += n;
+        }
+
+        for (int i = 0; i < senders; i++)
+            Lib.assertTrue(next[i] == words);
+        Lib.assertTrue(channel.size() == 0);
+    }
+
+    private final int[] buffer;
+    /** The index of the oldest word, and the number of words buffered. */
+    private int head = 0, count = 0;
+
+    private final Lock lock;
+    private final Condition2 notEmpty;
+    private final Condition2 notFull;
+}
@@ -52,6 +52,39 @@ public class Condition2 {
         Machine.interrupt().restore(intStatus);
     }
 
+    /**
+     * Like <tt>sleep()</tt>, but wake up on its own if no other thread wakes
+     * it within <i>timeout</i> ticks. The wait ends at the first timer
+     * interrupt after that time, as in <tt>Alarm.waitUntil()</tt>. Either way
+     * the associated lock is reacquired before this returns. If
+     * <i>timeout</i> is not positive, this returns at once without releasing
+     * the lock.
+     *
+     * @param timeout the maximum number of clock ticks to sleep.
+     * @return <tt>true</tt> if another thread woke this one, or
+     * <tt>false</tt> if the time ran out.
+     */
+    public boolean sleep(long timeout) {
+        Lib.assertTrue(conditionLock.isHeldByCurrentThread());
+
+        if (timeout <= 0)
+            return false;
+
+        boolean intStatus = Machine.interrupt().disable();
+        waitList.add(KThread.currentThread());
+
+        conditionLock.release();
+        boolean woken = new TimedWait() {
+            boolean dequeue() {
+                return waitList.remove(thread);
+            }
+        }.sleep(timeout);
+        conditionLock.acquire();
+
+        Machine.interrupt().restore(intStatus);
+        return woken;
+    }
+
     /**
      * Wake up at most one thread sleeping on this condition variable. The
      * current thread must hold the associated lock.
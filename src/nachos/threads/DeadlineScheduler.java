@@ -0,0 +1,294 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.Comparator;
+import java.util.TreeSet;
+
+/**
+ * A priority scheduler with an earliest-deadline-first class for real-time
+ * threads above it.
+ *
+ * <p>
+ * A thread becomes real-time through <tt>setRealTime()</tt>, which gives it
+ * a period, a relative deadline and a budget: every period, the thread
+ * releases a job that needs at most <i>budget</i> ticks of processor time and
+ * must complete within <i>deadline</i> ticks of its release. The thread
+ * completes each job by calling <tt>waitForNextPeriod()</tt>. Ready
+ * real-time threads always run before best-effort ones, earliest absolute
+ * deadline first; best-effort threads are scheduled exactly as by
+ * <tt>PriorityScheduler</tt>, and all queues other than the ready queue are
+ * priority queues.
+ *
+ * <p>
+ * A job that has run for its whole budget is throttled: the next time its
+ * thread is made ready, it goes into the best-effort class at its priority
+ * until the release of its next job, so that an overrunning thread cannot
+ * take the time reserved for the others.
+ *
+ * <p>
+ * Admission control keeps the sum of <i>budget / deadline</i> over the
+ * real-time threads at or below <tt>DeadlineScheduler.maxUtilization</tt>
+ * (1.0 by default), which is sufficient for EDF to meet every deadline.
+ * Setting it lower leaves a guaranteed share for best-effort threads. Jobs
+ * completed and deadlines missed are counted in <tt>Stats</tt>.
+ */
+public class DeadlineScheduler extends PriorityScheduler {
+    /**
+     * Allocate a new deadline scheduler.
+     */
+    public DeadlineScheduler() {
+        maxUtilization =
+                Config.getDouble("DeadlineScheduler.maxUtilization", 1.0);
+        Lib.assertTrue(maxUtilization > 0 && maxUtilization <= 1.0);
+    }
+
+    /**
+     * Allocate the ready queue, which runs real-time threads by deadline
+     * before best-effort threads by priority.
+     *
+     * @return a new ready queue.
+     */
+    public ThreadQueue newReadyQueue() {
+        Lib.assertTrue(readyQueue == null);
+
+        readyQueue = new DeadlineQueue();
+        return readyQueue;
+    }
+
+    /**
+     * Make the specified thread a real-time thread, if it can be admitted.
+     * Its first job is released now. A thread that is already real-time is
+     * readmitted with the new parameters. This should be called before the
+     * thread is forked, or by the thread itself.
+     *
+     * @param thread   the thread to make real-time.
+     * @param period   the ticks between job releases.
+     * @param deadline the ticks after a release by which the job must
+     *                 complete; at most <i>period</i>.
+     * @param budget   the ticks of processor time a job needs; at most
+     *                 <i>deadline</i>.
+     * @return <tt>true</tt> if the thread was admitted, or <tt>false</tt> if
+     * that would raise utilization above the limit, in which case nothing
+     * changes.
+     */
+    public boolean setRealTime(KThread thread, long period, long deadline,
+                               long budget) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+        Lib.assertTrue(budget > 0 && budget <= deadline && deadline <= period);
+
+        DeadlineState threadState = getThreadState(thread);
+        double density = (double) budget / deadline;
+        double others = utilization;
+        if (threadState.realTime)
+            others -= threadState.density;
+
+        if (others + density > maxUtilization + 1e-9)
+            return false;
+
+        boolean queued = threadState.queued;
+        if (queued)
+            readyQueue.remove(threadState);
+
+        utilization = others + density;
+        threadState.realTime = true;
+        threadState.period = period;
+        threadState.deadline = deadline;
+        threadState.budget = budget;
+        threadState.density = density;
+        threadState.release = Machine.timer().getTime();
+        threadState.absoluteDeadline = threadState.release + deadline;
+        threadState.jobStart = thread.getRunTicks();
+
+        if (queued)
+            readyQueue.add(threadState);
+        return true;
+    }
+
+    /**
+     * Return the specified thread to the best-effort class, freeing its share
+     * of the utilization. A real-time thread should call this before it
+     * finishes.
+     *
+     * @param thread the thread to make best-effort.
+     */
+    public void clearRealTime(KThread thread) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        DeadlineState threadState = getThreadState(thread);
+        if (!threadState.realTime)
+            return;
+
+        utilization = Math.max(utilization - threadState.density, 0);
+        threadState.realTime = false;
+    }
+
+    /**
+     * Complete the current job of the current thread, which must be
+     * real-time, and sleep until the release of its next job. If the job
+     * completed after its deadline, a miss is counted. If the next release
+     * has already passed, the next job starts at once.
+     */
+    public void waitForNextPeriod() {
+        boolean intStatus = Machine.interrupt().disable();
+
+        KThread thread = KThread.currentThread();
+        DeadlineState threadState = getThreadState(thread);
+        Lib.assertTrue(threadState.realTime);
+
+        long now = Machine.timer().getTime();
+        Machine.autoGrader().completedDeadlineJob(
+                now > threadState.absoluteDeadline);
+
+        // the thread does not run while it sleeps, so the next job's time
+        // can be counted from here
+        threadState.jobStart = thread.getRunTicks();
+
+        threadState.release += threadState.period;
+        if (threadState.release < now)
+            threadState.release = now;
+        threadState.absoluteDeadline =
+                threadState.release + threadState.deadline;
+
+        Machine.interrupt().restore(intStatus);
+
+        if (threadState.release > now)
+            ThreadedKernel.alarm.waitUntil(threadState.release - now);
+    }
+
+    /**
+     * Return the sum of <i>budget / deadline</i> over all admitted real-time
+     * threads.
+     *
+     * @return the utilization reserved by real-time threads.
+     */
+    public double getUtilization() {
+        return utilization;
+    }
+
+    protected DeadlineState getThreadState(KThread thread) {
+        if (thread.schedulingState == null)
+            thread.schedulingState = new DeadlineState(thread);
+
+        return (DeadlineState) thread.schedulingState;
+    }
+
+    /**
+     * The ready queue: real-time threads ordered by absolute deadline, and
+     * under them a priority queue of best-effort threads.
+     */
+    protected class DeadlineQueue extends ThreadQueue {
+        public void waitForAccess(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            DeadlineState threadState = getThreadState(thread);
+            if (threadState.realTime && !threadState.overrun()) {
+                threadState.sequence = ++arrivals;
+                add(threadState);
+            } else {
+                bestEffort.waitForAccess(thread);
+            }
+        }
+
+        public void acquire(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            bestEffort.acquire(thread);
+        }
+
+        public KThread nextThread() {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            DeadlineState threadState = realTime.pollFirst();
+            if (threadState == null)
+                return bestEffort.nextThread();
+
+            threadState.queued = false;
+            return threadState.thread;
+        }
+
+        public boolean remove(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            DeadlineState threadState = getThreadState(thread);
+            if (!threadState.queued)
+                return bestEffort.remove(thread);
+
+            remove(threadState);
+            return true;
+        }
+
+        public void print() {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            for (DeadlineState threadState : realTime) {
+                System.out.print(" " + threadState.thread + "(deadline " +
+                        threadState.absoluteDeadline + ")");
+            }
+            bestEffort.print();
+        }
+
+        private void add(DeadlineState threadState) {
+            threadState.queued = true;
+            realTime.add(threadState);
+        }
+
+        private void remove(DeadlineState threadState) {
+            realTime.remove(threadState);
+            threadState.queued = false;
+        }
+
+        private final TreeSet<DeadlineState> realTime =
+                new TreeSet<DeadlineState>(new Comparator<DeadlineState>() {
+                    public int compare(DeadlineState a, DeadlineState b) {
+                        if (a.absoluteDeadline != b.absoluteDeadline)
+                            return (a.absoluteDeadline < b.absoluteDeadline)
+                                    ? -1 : 1;
+                        return Long.compare(a.sequence, b.sequence);
+                    }
+                });
+        private final ThreadQueue bestEffort = newThreadQueue(false);
+        private long arrivals = 0;
+    }
+
+    /**
+     * The scheduling state of a thread, with its real-time parameters if it
+     * has any.
+     */
+    protected class DeadlineState extends ThreadState {
+        /**
+         * Allocate a new <tt>DeadlineState</tt> object and associate it with
+         * the specified thread.
+         *
+         * @param thread the thread this state belongs to.
+         */
+        public DeadlineState(KThread thread) {
+            super(thread);
+        }
+
+        /**
+         * Test if the current job has used up its budget.
+         */
+        private boolean overrun() {
+            return thread.getRunTicks() - jobStart >= budget;
+        }
+
+        private boolean realTime;
+        private long period;
+        private long deadline;
+        private long budget;
+        private double density;
+        /** The ticks the thread had run when its current job started. */
+        private long jobStart;
+        /** The release time and absolute deadline of the current job. */
+        private long release;
+        private long absoluteDeadline;
+        /** <tt>true</tt> while in the real-time part of the ready queue. */
+        private boolean queued;
+        private long sequence;
+    }
+
+    private final double maxUtilization;
+    private double utilization = 0;
+    private DeadlineQueue readyQueue = null;
+}
@@ -0,0 +1,251 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.TreeSet;
+
+/**
+ * A scheduler that divides the processor among ready threads in proportion to
+ * their weights, in the manner of a completely fair scheduler.
+ *
+ * <p>
+ * Every thread has a <i>virtual runtime</i>: the ticks it has spent running,
+ * as counted by <tt>KThread.getRunTicks()</tt>, scaled down by its weight.
+ * The ready queue is a balanced tree ordered by virtual runtime, and the next
+ * thread to run is always the leftmost, the one that has so far received the
+ * least of its share. Weights come from the usual priority range 0 to 7, each
+ * step up being worth a quarter more processor time than the one below it.
+ *
+ * <p>
+ * A thread that joins the ready queue is never placed before the smallest
+ * virtual runtime the queue has handed out, so threads that were blocked or
+ * are new cannot claim the time they were away. Queues other than the ready
+ * queue are plain FIFO queues, and no priority is transferred.
+ */
+public class FairScheduler extends RoundRobinScheduler {
+    /**
+     * Allocate a new fair scheduler.
+     */
+    public FairScheduler() {
+    }
+
+    /**
+     * Allocate the ready queue, ordered by virtual runtime.
+     *
+     * @return a new ready queue.
+     */
+    public ThreadQueue newReadyQueue() {
+        return new FairQueue();
+    }
+
+    public int getPriority(KThread thread) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        return getThreadState(thread).priority;
+    }
+
+    public int getEffectivePriority(KThread thread) {
+        return getPriority(thread);
+    }
+
+    public void setPriority(KThread thread, int priority) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        Lib.assertTrue(priority >= priorityMinimum &&
+                priority <= priorityMaximum);
+
+        getThreadState(thread).priority = priority;
+    }
+
+    public boolean increasePriority() {
+        boolean intStatus = Machine.interrupt().disable();
+
+        KThread thread = KThread.currentThread();
+
+        int priority = getPriority(thread);
+        if (priority == priorityMaximum) {
+            Machine.interrupt().restore(intStatus);
+            return false;
+        }
+
+        setPriority(thread, priority + 1);
+
+        Machine.interrupt().restore(intStatus);
+        return true;
+    }
+
+    public boolean decreasePriority() {
+        boolean intStatus = Machine.interrupt().disable();
+
+        KThread thread = KThread.currentThread();
+
+        int priority = getPriority(thread);
+        if (priority == priorityMinimum) {
+            Machine.interrupt().restore(intStatus);
+            return false;
+        }
+
+        setPriority(thread, priority - 1);
+
+        Machine.interrupt().restore(intStatus);
+        return true;
+    }
+
+    /**
+     * The default priority for a new thread.
+     */
+    public static final int priorityDefault = PriorityScheduler.priorityDefault;
+    /**
+     * The minimum priority that a thread can have.
+     */
+    public static final int priorityMinimum = PriorityScheduler.priorityMinimum;
+    /**
+     * The maximum priority that a thread can have.
+     */
+    public static final int priorityMaximum = PriorityScheduler.priorityMaximum;
+
+    /**
+     * The weight of each priority. A thread of the default priority has
+     * weight 1024, and its virtual runtime advances at the same rate as real
+     * time.
+     */
+    private static final long[] weights = {
+            819, 1024, 1280, 1600, 2000, 2500, 3125, 3906
+    };
+
+    /**
+     * Return the scheduling state of the specified thread.
+     *
+     * @param thread the thread whose scheduling state to return.
+     * @return the scheduling state of the specified thread.
+     */
+    protected ThreadState getThreadState(KThread thread) {
+        if (thread.schedulingState == null)
+            thread.schedulingState = new ThreadState(thread);
+
+        return (ThreadState) thread.schedulingState;
+    }
+
+    /**
+     * The ready queue: a red-black tree of threads ordered by virtual
+     * runtime, ties going to the thread that arrived first.
+     */
+    protected class FairQueue extends ThreadQueue {
+        public void waitForAccess(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            ThreadState threadState = getThreadState(thread);
+            threadState.update();
+            if (threadState.vruntime < minVruntime)
+                threadState.vruntime = minVruntime;
+
+            threadState.sequence = ++arrivals;
+            tree.add(threadState);
+        }
+
+        public void acquire(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            Lib.assertTrue(tree.isEmpty());
+        }
+
+        public KThread nextThread() {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            ThreadState threadState = tree.pollFirst();
+            if (threadState == null)
+                return null;
+
+            minVruntime = Math.max(minVruntime, threadState.vruntime);
+            return threadState.thread;
+        }
+
+        public boolean remove(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            return tree.remove(getThreadState(thread));
+        }
+
+        /**
+         * Return the next thread that <tt>nextThread()</tt> would return,
+         * without modifying the state of this queue.
+         *
+         * @return the next thread that <tt>nextThread()</tt> would
+         * return.
+         */
+        protected ThreadState pickNextThread() {
+            return tree.isEmpty() ? null : tree.first();
+        }
+
+        public void print() {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            for (ThreadState threadState : tree) {
+                System.out.print(" " + threadState.thread + "(" +
+                        threadState.vruntime + ")");
+            }
+            System.out.println();
+        }
+
+        private final TreeSet<ThreadState> tree = new TreeSet<ThreadState>();
+        private long arrivals = 0;
+        /** The smallest virtual runtime this queue has dispatched. */
+        private long minVruntime = 0;
+    }
+
+    /**
+     * The scheduling state of a thread: its priority and virtual runtime.
+     *
+     * @see KThread#schedulingState
+     */
+    protected class ThreadState implements Comparable<ThreadState> {
+        /**
+         * Allocate a new <tt>ThreadState</tt> object and associate it with the
+         * specified thread.
+         *
+         * @param thread the thread this state belongs to.
+         */
+        public ThreadState(KThread thread) {
+            this.thread = thread;
+            this.accounted = thread.getRunTicks();
+        }
+
+        /**
+         * Charge the associated thread for the ticks it has run since it was
+         * last charged, scaled by its weight. Any remainder is carried over,
+         * so that no time is lost to rounding.
+         */
+        private void update() {
+            long runTicks = thread.getRunTicks();
+            long scaled = (runTicks - accounted) * weights[priorityDefault] +
+                    remainder;
+            accounted = runTicks;
+
+            long weight = weights[priority - priorityMinimum];
+            vruntime += scaled / weight;
+            remainder = scaled % weight;
+        }
+
+        public int compareTo(ThreadState other) {
+            if (vruntime != other.vruntime)
+                return (vruntime < other.vruntime) ? -1 : 1;
+            if (sequence != other.sequence)
+                return (sequence < other.sequence) ? -1 : 1;
+            return 0;
+        }
+
+        /**
+         * The thread with which this object is associated.
+         */
+        protected KThread thread;
+        /**
+         * The priority of the associated thread.
+         */
+        protected int priority = priorityDefault;
+
+        private long vruntime = 0;
+        private long accounted;
+        private long remainder = 0;
+        private long sequence;
+    }
+}
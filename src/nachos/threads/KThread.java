@@ -46,7 +46,10 @@ public class KThread {
         if (currentThread != null) {
             tcb = new TCB();
         } else {
-            readyQueue = ThreadedKernel.scheduler.newThreadQueue(false);
+            accounting = Config.getBoolean("KThread.accounting", false);
+            timingReadyQueue = accounting;
+
+            readyQueue = ThreadedKernel.scheduler.newReadyQueue();
             readyQueue.acquire(this);
 
             currentThread = this;
@@ -60,6 +63,9 @@ public class KThread {
         boolean intStatus = Machine.interrupt().disable();
         joinThreadQueue.acquire(this);
         Machine.interrupt().restore(intStatus);
+
+        if (accounting)
+            ThreadAccounting.threadCreated(this);
     }
 
     /**
@@ -242,6 +248,16 @@ public class KThread {
         Machine.interrupt().restore(intStatus);
     }
 
+    /**
+     * Yield because the timer has preempted the current thread. Behaves
+     * exactly like <tt>yield()</tt>, but the context switch is accounted as
+     * involuntary.
+     */
+    static void preempt() {
+        preempting = true;
+        KThread.yield();
+    }
+
     /**
      * Relinquish the CPU, because the current thread has either finished or it
      * is blocked. This thread must be the current thread.
@@ -275,8 +291,21 @@ public class KThread {
         Lib.assertTrue(status != statusReady);
 
         status = statusReady;
-        if (this != idleThread)
-            readyQueue.waitForAccess(this);
+        if (this != idleThread) {
+            if (accounting)
+                readyTime = Machine.timer().getTime();
+            if (timingReadyQueue) {
+                long start = System.nanoTime();
+                readyQueue.waitForAccess(this);
+                ThreadAccounting.enqueued(System.nanoTime() - start);
+            } else {
+                readyQueue.waitForAccess(this);
+            }
+            numReadyThreads++;
+
+            if (ThreadedKernel.alarm != null)
+                ThreadedKernel.alarm.threadReady();
+        }
 
         Machine.autoGrader().readyThread(this);
     }
@@ -325,13 +354,28 @@ public class KThread {
      *
      * <p>
      * Note that <tt>ready()</tt> never adds the idle thread to the ready set.
+     *
+     * <p>
+     * If <tt>KThread.idleFastForward</tt> is set, the idle thread skips the
+     * simulated time until the next interrupt whenever no thread is ready,
+     * rather than yielding once per kernel tick until it occurs. Simulated
+     * time advances exactly as it would have by yielding.
      */
     private static void createIdleThread() {
         Lib.assertTrue(idleThread == null);
 
+        final boolean fastForward =
+                Config.getBoolean("KThread.idleFastForward", false);
+
         idleThread = new KThread(new Runnable() {
             public void run() {
-                while (true) yield();
+                while (true) {
+                    // only an interrupt can make a thread ready now
+                    if (fastForward && numReadyThreads == 0)
+                        Machine.autoGrader().idle();
+
+                    KThread.yield();
+                }
             }
         });
         idleThread.setName("idle");
@@ -346,9 +390,18 @@ public class KThread {
      * using <tt>run()</tt>.
      */
     private static void runNextThread() {
-        KThread nextThread = readyQueue.nextThread();
+        KThread nextThread;
+        if (timingReadyQueue) {
+            long start = System.nanoTime();
+            nextThread = readyQueue.nextThread();
+            ThreadAccounting.dequeued(System.nanoTime() - start);
+        } else {
+            nextThread = readyQueue.nextThread();
+        }
         if (nextThread == null)
             nextThread = idleThread;
+        else
+            numReadyThreads--;
 
         nextThread.run();
     }
@@ -378,6 +431,20 @@ public class KThread {
 
         Machine.yield();
 
+        currentThread.runTicks +=
+                Machine.timer().getTime() - currentThread.dispatchTime;
+
+        boolean involuntary = preempting;
+        preempting = false;
+        if (accounting && this != currentThread &&
+                currentThread.status != statusFinished) {
+            if (involuntary)
+                currentThread.numInvoluntarySwitches++;
+            else
+                currentThread.numVoluntarySwitches++;
+            ThreadAccounting.switched(involuntary);
+        }
+
         currentThread.saveState();
 
         Lib.debug(dbgThread, "Switching from: " + currentThread.toString()
@@ -404,14 +471,110 @@ public class KThread {
         Machine.autoGrader().runningThread(this);
 
         status = statusRunning;
+        dispatchTime = Machine.timer().getTime();
+
+        if (ThreadedKernel.alarm != null)
+            ThreadedKernel.alarm.threadDispatched();
+
+        numDispatches++;
+        if (accounting && readyTime >= 0) {
+            readyWaitTicks += dispatchTime - readyTime;
+            ThreadAccounting.waited(dispatchTime - readyTime);
+            readyTime = -1;
+        }
 
         if (toBeDestroyed != null) {
+            if (accounting)
+                ThreadAccounting.threadFinished(toBeDestroyed);
             toBeDestroyed.tcb.destroy();
             toBeDestroyed.tcb = null;
             toBeDestroyed = null;
         }
     }
 
+    /**
+     * Return the number of ticks this thread has spent on the processor. For
+     * the current thread this includes the time since it was last dispatched.
+     *
+     * @return the ticks this thread has run.
+     */
+    public long getRunTicks() {
+        if (this == currentThread)
+            return runTicks + Machine.timer().getTime() - dispatchTime;
+        else
+            return runTicks;
+    }
+
+    /**
+     * Return the number of times this thread has been given the processor.
+     *
+     * @return the number of dispatches of this thread.
+     */
+    public int getNumDispatches() {
+        return numDispatches;
+    }
+
+    /**
+     * Return the number of ticks this thread has spent in the ready queue.
+     * Only counted if <tt>KThread.accounting</tt> is set.
+     *
+     * @return the ticks this thread has waited to run.
+     */
+    public long getReadyWaitTicks() {
+        return readyWaitTicks;
+    }
+
+    /**
+     * Return the number of times this thread gave up the processor by
+     * yielding or blocking. Only counted if <tt>KThread.accounting</tt> is
+     * set.
+     *
+     * @return the number of voluntary context switches.
+     */
+    public int getNumVoluntarySwitches() {
+        return numVoluntarySwitches;
+    }
+
+    /**
+     * Return the number of times this thread was preempted by the timer.
+     * Only counted if <tt>KThread.accounting</tt> is set.
+     *
+     * @return the number of involuntary context switches.
+     */
+    public int getNumInvoluntarySwitches() {
+        return numInvoluntarySwitches;
+    }
+
+    /**
+     * Return the number of threads waiting in the ready queue, not counting
+     * the idle thread.
+     *
+     * @return the number of ready threads.
+     */
+    static int getNumReadyThreads() {
+        return numReadyThreads;
+    }
+
+    /**
+     * Return <tt>true</tt> if <tt>KThread.accounting</tt> is set, so that
+     * threads keep scheduling accounting.
+     *
+     * @return <tt>true</tt> if threads are being accounted.
+     */
+    public static boolean isAccounting() {
+        return accounting;
+    }
+
+    /**
+     * Time every operation on the ready queue, as accounting does, even if
+     * <tt>KThread.accounting</tt> is not set.
+     *
+     * @see ThreadAccounting#getReadyQueueNanoseconds()
+     */
+    static void timeReadyQueue() {
+        timingReadyQueue = true;
+    }
+
     /**
      * Prepare this thread to give up the processor. Kernel threads do not
      * need to do anything here.
@@ -664,6 +827,24 @@ public class KThread {
     private Runnable target;
     private TCB tcb;
 
+    /**
+     * Ticks spent running before the current dispatch, and the time of the
+     * current dispatch.
+     */
+    private long runTicks = 0;
+    private long dispatchTime = 0;
+
+    private int numDispatches = 0;
+    /**
+     * Scheduling accounting, kept only if <tt>KThread.accounting</tt> is set.
+     * <tt>readyTime</tt> is when this thread last became ready, or -1 if it
+     * has been dispatched since.
+     */
+    private int numVoluntarySwitches = 0;
+    private int numInvoluntarySwitches = 0;
+    private long readyTime = -1;
+    private long readyWaitTicks = 0;
+
     /**
      * Unique identifer for this thread. Used to deterministically compare
      * threads.
@@ -675,9 +856,17 @@ public class KThread {
     private static int numCreated = 0;
 
     private static ThreadQueue readyQueue = null;
+    /**
+     * The number of threads in the ready queue.
+     */
+    private static int numReadyThreads = 0;
     private static KThread currentThread = null;
     private static KThread toBeDestroyed = null;
     private static KThread idleThread = null;
+    private static boolean accounting = false;
+    private static boolean timingReadyQueue = false;
+    /** Set by <tt>preempt()</tt> for the context switch it causes. */
+    private static boolean preempting = false;
 
     // =================================================================================================================
     // BEGIN CHANGE
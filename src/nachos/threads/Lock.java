@@ -49,6 +49,40 @@ public class Lock {
         Machine.interrupt().restore(intStatus);
     }
 
+    /**
+     * Like <tt>acquire()</tt>, but give up if the lock is not handed to the
+     * current thread within <i>timeout</i> ticks. The wait ends at the first
+     * timer interrupt after that time, as in <tt>Alarm.waitUntil()</tt>. If
+     * <i>timeout</i> is not positive, this never waits.
+     *
+     * @param timeout the maximum number of clock ticks to wait.
+     * @return <tt>true</tt> if the lock was acquired, or <tt>false</tt> if the
+     * time ran out.
+     */
+    public boolean acquire(long timeout) {
+        Lib.assertTrue(!isHeldByCurrentThread());
+
+        boolean intStatus = Machine.interrupt().disable();
+        KThread thread = KThread.currentThread();
+
+        if (lockHolder == null) {
+            waitQueue.acquire(thread);
+            lockHolder = thread;
+        } else if (timeout > 0) {
+            waitQueue.waitForAccess(thread);
+            new TimedWait() {
+                boolean dequeue() {
+                    return waitQueue.remove(thread);
+                }
+            }.sleep(timeout);
+        }
+
+        boolean acquired = (lockHolder == thread);
+
+        Machine.interrupt().restore(intStatus);
+        return acquired;
+    }
+
     /**
      * Atomically release this lock, allowing other threads to acquire it.
      */
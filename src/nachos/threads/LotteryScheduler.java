@@ -2,7 +2,7 @@ package nachos.threads;
 
 import nachos.machine.*;
 
-import java.util.*;
+import java.util.Arrays;
 
 /**
  * A scheduler that chooses threads using a lottery.
@@ -44,6 +44,62 @@ public class LotteryScheduler extends PriorityScheduler {
         return new LotteryQueue(transferPriority);
     }
 
+    public void setPriority(KThread thread, int priority) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        Lib.assertTrue(priority >= priorityMinimum &&
+                priority <= priorityMaximum);
+
+        getThreadState(thread).setPriority(priority);
+    }
+
+    public boolean increasePriority() {
+        boolean intStatus = Machine.interrupt().disable();
+
+        KThread thread = KThread.currentThread();
+
+        int priority = getPriority(thread);
+        if (priority == priorityMaximum) {
+            Machine.interrupt().restore(intStatus);
+            return false;
+        }
+
+        setPriority(thread, priority + 1);
+
+        Machine.interrupt().restore(intStatus);
+        return true;
+    }
+
+    public boolean decreasePriority() {
+        boolean intStatus = Machine.interrupt().disable();
+
+        KThread thread = KThread.currentThread();
+
+        int priority = getPriority(thread);
+        if (priority == priorityMinimum) {
+            Machine.interrupt().restore(intStatus);
+            return false;
+        }
+
+        setPriority(thread, priority - 1);
+
+        Machine.interrupt().restore(intStatus);
+        return true;
+    }
+
+    /**
+     * The default number of tickets for a new thread.
+     */
+    public static final int priorityDefault = 1;
+    /**
+     * The minimum number of tickets that a thread can have.
+     */
+    public static final int priorityMinimum = 1;
+    /**
+     * The maximum number of tickets that a thread can have.
+     */
+    public static final int priorityMaximum = Integer.MAX_VALUE;
+
     protected LotteryState getThreadState(KThread thread) {
         if (thread.schedulingState == null)
             thread.schedulingState = new LotteryState(thread);
@@ -51,94 +107,232 @@ public class LotteryScheduler extends PriorityScheduler {
         return (LotteryState) thread.schedulingState;
     }
 
-    protected class LotteryQueue extends PriorityScheduler.PriorityQueue {
-
+    /**
+     * A <tt>ThreadQueue</tt> that holds a lottery among its waiting threads.
+     *
+     * <p>
+     * Waiting threads occupy slots of a Fenwick tree keyed by their effective
+     * tickets, so that inserting or removing a thread, changing its tickets,
+     * and drawing the winner all take O(log n). The total is kept alongside,
+     * and is what the queue donates to the thread holding it.
+     */
+    protected class LotteryQueue extends ThreadQueue {
         LotteryQueue(boolean transferPriority) {
-            super(transferPriority);
+            this.transferPriority = transferPriority;
         }
 
         public void waitForAccess(KThread thread) {
             Lib.assertTrue(Machine.interrupt().disabled());
             LotteryState threadState = getThreadState(thread);
-            threadState.waitForAccess(this);
-            threadList.add(threadState);
-            if (transferPriority) {
-                acquireThread.transferPriority(this, threadState.getEffectivePriority());
-            }
+            Lib.assertTrue(threadState.waitQueue == null);
+
+            if (size == slots.length)
+                grow();
+
+            int slot = freeSlots[size++];
+            slots[slot] = threadState;
+            threadState.waitQueue = this;
+            threadState.slot = slot;
+            add(slot, threadState.getTickets());
         }
 
         public void acquire(KThread thread) {
             Lib.assertTrue(Machine.interrupt().disabled());
             LotteryState threadState = getThreadState(thread);
-            threadState.acquire(this);
-            acquireThread = threadState;
+            Lib.assertTrue(threadState.waitQueue != this);
+
+            setHolder(threadState);
         }
 
         public KThread nextThread() {
             Lib.assertTrue(Machine.interrupt().disabled());
             // implement me
-            if (acquireThread != null) {//当前线程退出，重置有效优先级
-                acquireThread.exit(this);
-            }
             LotteryState threadState = pickNextThread();
-            acquireThread = threadState;
-            threadList.remove(threadState);
-            if (threadState == null) return null;
-            threadState.acquire(this);
-            return threadState.thread;
+            if (threadState != null)
+                remove(threadState);
+
+            setHolder(threadState);
+            return (threadState == null) ? null : threadState.thread;
         }
 
-        @Override
-        public LotteryState pickNextThread() {
-            // implement me
-            int totalPriority = 0;
-            //排序
-//            threadList.sort(Comparator.comparing(LotteryState::getPriority));
-            for (int i = 0; i < threadList.size(); i++) {
-                for (int j = i; j < threadList.size() - 1; j++) {
-                    if (threadList.get(j).getEffectivePriority() > threadList.get(j + 1).getEffectivePriority()) {
-                        LotteryState temp = threadList.remove(j + 1);
-                        threadList.add(j, temp);
-                    }
+        public boolean remove(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+            LotteryState threadState = getThreadState(thread);
+            if (threadState.waitQueue != this)
+                return false;
+
+            remove(threadState);
+            return true;
+        }
+
+        public void changeHolder(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+            LotteryState threadState = getThreadState(thread);
+            Lib.assertTrue(threadState.waitQueue != this);
+
+            setHolder(threadState);
+        }
+
+        /**
+         * Hold the lottery among the waiting threads. A draw is only made if
+         * there is more than one thread to choose from.
+         *
+         * @return the winning thread, or <tt>null</tt> if no thread is
+         * waiting.
+         */
+        protected LotteryState pickNextThread() {
+            if (size == 0)
+                return null;
+            if (size == 1)
+                return slots[find(0)];
+
+            long ticket;
+            if (total <= Integer.MAX_VALUE)
+                ticket = Lib.random((int) total);
+            else
+                ticket = Math.min((long) (Lib.random() * total), total - 1);
+
+            return slots[find(ticket)];
+        }
+
+        public void print() {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            for (int slot = 0; slot < slots.length; slot++) {
+                if (slots[slot] != null) {
+                    System.out.print(" " + slots[slot].thread + "(" +
+                            slots[slot].getTickets() + ")");
                 }
             }
-            //计算彩票总和
-            for (LotteryState threadState : threadList) {
-                totalPriority += threadState.getEffectivePriority();
-            }
-            int rand = Lib.random(totalPriority + 1);//from 1 to totalPriority
-            int index = 0;
-            for (int i = threadList.size() - 1; i > 0; i--) {
-                if (rand >= threadList.get(i).getEffectivePriority()) {
-                    index = i;
-                    break;
+            System.out.println();
+        }
+
+        /**
+         * Called when the tickets of a waiting thread change.
+         */
+        private void update(LotteryState threadState, long oldTickets) {
+            add(threadState.slot, threadState.getTickets() - oldTickets);
+        }
+
+        private void remove(LotteryState threadState) {
+            Lib.assertTrue(threadState.waitQueue == this);
+
+            int slot = threadState.slot;
+            add(slot, -threadState.getTickets());
+            slots[slot] = null;
+            freeSlots[--size] = slot;
+            threadState.waitQueue = null;
+        }
+
+        /**
+         * Make <tt>threadState</tt> the holder of this queue, moving this
+         * queue's donation from the previous holder to the new one.
+         */
+        private void setHolder(LotteryState threadState) {
+            if (transferPriority && acquireThread != null)
+                acquireThread.donate(-total);
+
+            acquireThread = threadState;
+
+            if (transferPriority && acquireThread != null)
+                acquireThread.donate(total);
+        }
+
+        /**
+         * Add <tt>delta</tt> tickets to a slot, and pass the change on to the
+         * holder if this queue transfers tickets.
+         */
+        private void add(int slot, long delta) {
+            if (delta == 0)
+                return;
+
+            for (int i = slot + 1; i <= slots.length; i += i & -i)
+                tree[i] += delta;
+            total += delta;
+
+            if (transferPriority && acquireThread != null)
+                acquireThread.donate(delta);
+        }
+
+        /**
+         * Return the slot holding the given ticket, numbering the tickets of
+         * all slots consecutively from 0.
+         */
+        private int find(long ticket) {
+            int i = 0;
+            for (int step = Integer.highestOneBit(slots.length); step > 0;
+                 step >>= 1) {
+                if (i + step <= slots.length && tree[i + step] <= ticket) {
+                    i += step;
+                    ticket -= tree[i];
                 }
             }
-            if (threadList.size() == 0) return null;
-            else return threadList.get(index);
-        }
-
-        //根据等待线程的有效优先级更改当前线程的有效优先级
-        @Override
-        protected void changePriority() {
-            if (!transferPriority) return;
-            int totalPriority = priorityMinimum - 1;
-            //计算彩票总和
-            for (LotteryState threadState : threadList) {
-                totalPriority += threadState.getEffectivePriority();
+            return i;
+        }
+
+        /**
+         * Double the number of slots. Only called when every slot is in use,
+         * so the new slots are exactly the free ones, and the tree is rebuilt
+         * from the slot weights in linear time.
+         */
+        private void grow() {
+            int capacity = slots.length * 2;
+
+            LotteryState[] newSlots = Arrays.copyOf(slots, capacity);
+
+            int[] newFree = Arrays.copyOf(freeSlots, capacity);
+            for (int i = slots.length; i < capacity; i++)
+                newFree[i] = i;
+
+            long[] newTree = new long[capacity + 1];
+            for (int i = 1; i <= capacity; i++) {
+                if (newSlots[i - 1] != null)
+                    newTree[i] += newSlots[i - 1].getTickets();
+                int parent = i + (i & -i);
+                if (parent <= capacity)
+                    newTree[parent] += newTree[i];
             }
-            acquireThread.transferPriority(this, totalPriority);
+
+            slots = newSlots;
+            freeSlots = newFree;
+            tree = newTree;
         }
 
+        /**
+         * <tt>true</tt> if this queue should transfer tickets from waiting
+         * threads to the owning thread.
+         */
+        public boolean transferPriority;
 
-        // 等待线程列表
-        private final LinkedList<LotteryState> threadList = new LinkedList<>();
+        /**
+         * The waiting thread in each slot, or <tt>null</tt>. The free slots
+         * are kept as a stack in <tt>freeSlots[size..]</tt>.
+         */
+        private LotteryState[] slots = new LotteryState[initialSlots];
+        private int[] freeSlots = initialFreeSlots();
+        private long[] tree = new long[initialSlots + 1];
+        private int size = 0;
+        /** The tickets of all waiting threads. */
+        private long total = 0;
         // 持有锁的线程
         private LotteryState acquireThread;
     }
 
-    protected class LotteryState extends ThreadState {
+    private static int[] initialFreeSlots() {
+        int[] freeSlots = new int[initialSlots];
+        for (int i = 0; i < initialSlots; i++)
+            freeSlots[i] = i;
+        return freeSlots;
+    }
+
+    private static final int initialSlots = 8;
 
+    /**
+     * The scheduling state of a thread under lottery scheduling. Besides its
+     * own tickets, a thread holds the tickets donated by every queue it owns;
+     * the two together are its effective tickets.
+     */
+    protected class LotteryState extends ThreadState {
         /**
          * Allocate a new <tt>ThreadState</tt> object and associate it with the
          * specified thread.
@@ -149,24 +343,49 @@ public class LotteryScheduler extends PriorityScheduler {
             super(thread);
         }
 
+        /**
+         * Return the effective tickets of the associated thread, which may
+         * exceed <tt>Integer.MAX_VALUE</tt>.
+         *
+         * @return the effective tickets of the associated thread.
+         */
+        public long getTickets() {
+            return priority + donated;
+        }
 
-        protected void transferPriority(LotteryQueue waitQueue, int priority) {
-            effectPriorities.put(waitQueue, priority);
-            recomputeEffectPriority();
+        public int getEffectivePriority() {
+            return (int) Math.min(getTickets(), Integer.MAX_VALUE);
         }
 
-        @Override
-        protected void recomputeEffectPriority() {
-            int totalPriority = 0;
-            for (Map.Entry<LotteryQueue, Integer> entry : effectPriorities.entrySet()) {
-                totalPriority += entry.getValue();
-            }
-            if (totalPriority != effectPriority) {
-                changeEffectPriority(totalPriority);
-            }
+        public void setPriority(int priority) {
+            if (this.priority == priority)
+                return;
+
+            long oldTickets = getTickets();
+            this.priority = priority;
+            ticketsChanged(oldTickets);
+        }
+
+        /**
+         * Add to the tickets donated to this thread by the queues it holds.
+         *
+         * @param delta the change in donated tickets.
+         */
+        protected void donate(long delta) {
+            long oldTickets = getTickets();
+            donated += delta;
+            ticketsChanged(oldTickets);
+        }
+
+        private void ticketsChanged(long oldTickets) {
+            if (waitQueue != null)
+                waitQueue.update(this, oldTickets);
         }
 
-        private final HashMap<LotteryQueue, Integer> effectPriorities = new HashMap<>();
+        /** Tickets donated by the queues this thread holds. */
+        private long donated;
+        /** The queue this thread is waiting in, and its slot there. */
         private LotteryQueue waitQueue;
+        private int slot;
     }
 }
@@ -0,0 +1,335 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.ArrayDeque;
+import java.util.StringTokenizer;
+
+/**
+ * A multi-level feedback queue scheduler. The ready queue is split into
+ * levels, each a FIFO queue with its own quantum, and the next thread to run
+ * is always the first thread of the highest non-empty level.
+ *
+ * <p>
+ * A thread starts at the top level. Once it has run for its level's quantum,
+ * counting every time it ran there, it is moved down a level, so
+ * CPU-bound threads sink. A thread that blocks before its quantum is used
+ * up, for instance on a console read, a file system call or a network
+ * receive, moves up a level, so I/O-bound threads stay responsive. Every
+ * <tt>MultiLevelFeedbackScheduler.boostInterval</tt> ticks all threads are
+ * moved back to the top level, so that nothing starves.
+ *
+ * <p>
+ * The quantum of each level, in ticks, is given by
+ * <tt>MultiLevelFeedbackScheduler.quanta</tt> as a comma-separated list, top
+ * level first. Quanta are only checked at timer interrupts, so they are best
+ * given as multiples of the timer period (about 500 ticks).
+ *
+ * <p>
+ * Queues other than the ready queue are plain FIFO queues, and no priority is
+ * transferred.
+ */
+public class MultiLevelFeedbackScheduler extends RoundRobinScheduler {
+    /**
+     * Allocate a new multi-level feedback queue scheduler.
+     */
+    public MultiLevelFeedbackScheduler() {
+        String quantaString = Config.getString(
+                "MultiLevelFeedbackScheduler.quanta", "500,1000,2000,4000");
+
+        StringTokenizer st = new StringTokenizer(quantaString, ", \t");
+        quanta = new long[st.countTokens()];
+        for (int i = 0; i < quanta.length; i++) {
+            try {
+                quanta[i] = Long.parseLong(st.nextToken());
+            } catch (NumberFormatException e) {
+                Lib.assertNotReached("bad quantum in " + quantaString);
+            }
+            Lib.assertTrue(quanta[i] > 0);
+        }
+        Lib.assertTrue(quanta.length > 0);
+
+        boostInterval = Config.getInteger(
+                "MultiLevelFeedbackScheduler.boostInterval", 20000);
+        Lib.assertTrue(boostInterval > 0);
+    }
+
+    /**
+     * Allocate the multi-level ready queue. There can only be one.
+     *
+     * @return the ready queue.
+     */
+    public ThreadQueue newReadyQueue() {
+        Lib.assertTrue(readyQueue == null);
+
+        readyQueue = new FeedbackQueue();
+        return readyQueue;
+    }
+
+    /**
+     * Preempt the current thread if it has used up its quantum, if a thread
+     * on a higher level is ready, or if it is time to move every thread back
+     * to the top level.
+     *
+     * @return <tt>true</tt> if the current thread should yield.
+     */
+    public boolean shouldPreempt() {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        return readyQueue == null || readyQueue.shouldPreempt();
+    }
+
+    /**
+     * Return the level of the specified thread, 0 being the top level.
+     *
+     * @param thread the thread whose level to return.
+     * @return the thread's current level.
+     */
+    public int getLevel(KThread thread) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        return getThreadState(thread).getLevel();
+    }
+
+    /**
+     * Return the scheduling state of the specified thread.
+     *
+     * @param thread the thread whose scheduling state to return.
+     * @return the scheduling state of the specified thread.
+     */
+    protected ThreadState getThreadState(KThread thread) {
+        if (thread.schedulingState == null)
+            thread.schedulingState = new ThreadState(thread);
+
+        return (ThreadState) thread.schedulingState;
+    }
+
+    /**
+     * The ready queue: one FIFO queue of threads per level.
+     */
+    protected class FeedbackQueue extends ThreadQueue {
+        FeedbackQueue() {
+            levels = newLevels(quanta.length);
+            for (int i = 0; i < levels.length; i++)
+                levels[i] = new ArrayDeque<ThreadState>();
+
+            nextBoost = Machine.timer().getTime() + boostInterval;
+        }
+
+        public void waitForAccess(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            ThreadState threadState = getThreadState(thread);
+            threadState.refresh();
+
+            // the running thread is yielding; charge it for the time it used
+            if (threadState == running) {
+                threadState.charge();
+                running = null;
+            }
+
+            levels[threadState.level].add(threadState);
+        }
+
+        /**
+         * The first thread takes the processor without being dispatched.
+         */
+        public void acquire(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            running = getThreadState(thread);
+            running.dispatched = Machine.timer().getTime();
+        }
+
+        public KThread nextThread() {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            // a thread giving up the processor without yielding has blocked
+            if (running != null) {
+                running.refresh();
+                running.block();
+            }
+
+            if (Machine.timer().getTime() >= nextBoost)
+                boost();
+
+            ThreadState threadState = pickNextThread();
+            running = threadState;
+            if (threadState == null)
+                return null;
+
+            levels[threadState.level].removeFirst();
+            threadState.dispatched = Machine.timer().getTime();
+            return threadState.thread;
+        }
+
+        public boolean remove(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            ThreadState threadState = getThreadState(thread);
+            return levels[threadState.level].remove(threadState);
+        }
+
+        /**
+         * Return the next thread that <tt>nextThread()</tt> would return,
+         * without modifying the state of this queue.
+         *
+         * @return the next thread that <tt>nextThread()</tt> would
+         * return.
+         */
+        protected ThreadState pickNextThread() {
+            for (int i = 0; i < levels.length; i++) {
+                if (!levels[i].isEmpty())
+                    return levels[i].getFirst();
+            }
+            return null;
+        }
+
+        public void print() {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            for (int i = 0; i < levels.length; i++) {
+                System.out.print(" [" + i + "]");
+                for (ThreadState threadState : levels[i])
+                    System.out.print(" " + threadState.thread);
+            }
+            System.out.println();
+        }
+
+        private boolean shouldPreempt() {
+            // the idle thread always yields
+            if (running == null)
+                return true;
+
+            if (Machine.timer().getTime() >= nextBoost)
+                return true;
+
+            running.refresh();
+            if (running.used + Machine.timer().getTime() - running.dispatched
+                    >= quanta[running.level])
+                return true;
+
+            for (int i = 0; i < running.level; i++) {
+                if (!levels[i].isEmpty())
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * Move every thread back to the top level. Ready threads are moved
+         * now, keeping their order; the others notice the new epoch the next
+         * time they are scheduled.
+         */
+        private void boost() {
+            epoch++;
+            nextBoost = Machine.timer().getTime() + boostInterval;
+
+            for (int i = 1; i < levels.length; i++) {
+                while (!levels[i].isEmpty())
+                    levels[0].add(levels[i].removeFirst());
+            }
+            for (ThreadState threadState : levels[0])
+                threadState.refresh();
+        }
+
+        /**
+         * Allocate an array of <i>n</i> levels. Java cannot create an array of
+         * a generic type, so this casts an array of wildcard ones.
+         */
+        @SuppressWarnings("unchecked")
+        private ArrayDeque<ThreadState>[] newLevels(int n) {
+            return (ArrayDeque<ThreadState>[]) new ArrayDeque<?>[n];
+        }
+
+        private final ArrayDeque<ThreadState>[] levels;
+        /** The thread dispatched by this queue that is now running, if any. */
+        private ThreadState running = null;
+        private long nextBoost;
+    }
+
+    /**
+     * The scheduling state of a thread: its level, and how much of the
+     * quantum of that level it has used.
+     *
+     * @see KThread#schedulingState
+     */
+    protected class ThreadState {
+        /**
+         * Allocate a new <tt>ThreadState</tt> object and associate it with the
+         * specified thread.
+         *
+         * @param thread the thread this state belongs to.
+         */
+        public ThreadState(KThread thread) {
+            this.thread = thread;
+            this.epoch = MultiLevelFeedbackScheduler.this.epoch;
+        }
+
+        /**
+         * Return the level of the associated thread.
+         *
+         * @return the level of the associated thread.
+         */
+        public int getLevel() {
+            refresh();
+            return level;
+        }
+
+        /**
+         * Move the associated thread to the top level if there has been a
+         * boost since it was last scheduled.
+         */
+        private void refresh() {
+            if (epoch != MultiLevelFeedbackScheduler.this.epoch) {
+                epoch = MultiLevelFeedbackScheduler.this.epoch;
+                level = 0;
+                used = 0;
+            }
+        }
+
+        /**
+         * Charge the associated thread for the time since it was dispatched,
+         * moving it down a level if that uses up its quantum.
+         *
+         * @return <tt>true</tt> if the quantum was used up.
+         */
+        private boolean charge() {
+            used += Machine.timer().getTime() - dispatched;
+            if (used < quanta[level])
+                return false;
+
+            if (level < quanta.length - 1)
+                level++;
+            used = 0;
+            return true;
+        }
+
+        /**
+         * The associated thread blocked while running. If it had not used up
+         * its quantum, move it up a level.
+         */
+        private void block() {
+            if (!charge() && level > 0) {
+                level--;
+                used = 0;
+            }
+        }
+
+        /**
+         * The thread with which this object is associated.
+         */
+        protected KThread thread;
+
+        private int level = 0;
+        private long used = 0;
+        private long dispatched = 0;
+        private int epoch;
+    }
+
+    private final long[] quanta;
+    private final int boostInterval;
+    private FeedbackQueue readyQueue = null;
+    /** Incremented at every boost. */
+    private int epoch = 0;
+}
@@ -2,10 +2,6 @@ package nachos.threads;
 
 import nachos.machine.*;
 
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Map;
-
 /**
  * A scheduler that chooses threads based on their priorities.
  *
@@ -134,17 +130,19 @@ public class PriorityScheduler extends Scheduler {
             Lib.assertTrue(Machine.interrupt().disabled());
             ThreadState threadState = getThreadState(thread);
             threadState.waitForAccess(this);
-            threadList.add(threadState);
-            if (transferPriority) {
-                acquireThread.transferPriority(this, threadState.getEffectivePriority());
-            }
+            add(threadState);
+            changePriority();
         }
 
         public void acquire(KThread thread) {
             Lib.assertTrue(Machine.interrupt().disabled());
             ThreadState threadState = getThreadState(thread);
             threadState.acquire(this);
+            if (acquireThread != null) {
+                acquireThread.exit(this);
+            }
             acquireThread = threadState;
+            changePriority();
         }
 
         public KThread nextThread() {
@@ -155,12 +153,36 @@ public class PriorityScheduler extends Scheduler {
             }
             ThreadState threadState = pickNextThread();
             acquireThread = threadState;
-            threadList.remove(threadState);
             if (threadState == null) return null;
+            remove(threadState);
             threadState.acquire(this);
+            changePriority();
             return threadState.thread;
         }
 
+        public boolean remove(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+            ThreadState threadState = getThreadState(thread);
+            if (threadState.queue != this)
+                return false;
+
+            remove(threadState);
+            threadState.waitQueue = null;
+            changePriority();
+            return true;
+        }
+
+        public void changeHolder(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+            ThreadState threadState = getThreadState(thread);
+            Lib.assertTrue(threadState.queue != this);
+            if (acquireThread != null) {
+                acquireThread.exit(this);
+            }
+            acquireThread = threadState;
+            changePriority();
+        }
+
         /**
          * Return the next thread that <tt>nextThread()</tt> would return,
          * without modifying the state of this queue.
@@ -170,15 +192,104 @@ public class PriorityScheduler extends Scheduler {
          */
         protected ThreadState pickNextThread() {
             // implement me
-            int maxPriority = priorityMinimum - 1;
-            ThreadState maxPriorityThread = null;
-            for (ThreadState threadState : threadList) {
-                if (threadState.getEffectivePriority() > maxPriority) {
-                    maxPriority = threadState.getEffectivePriority();
-                    maxPriorityThread = threadState;
-                }
-            }
-            return maxPriorityThread;
+            if (nonEmpty == 0)
+                return null;
+
+            return heads[highestPriority()];
+        }
+
+        /**
+         * Return the highest effective priority of any waiting thread, or
+         * <tt>priorityMinimum - 1</tt> if no thread is waiting.
+         */
+        protected int highestPriority() {
+            return 31 - Integer.numberOfLeadingZeros(nonEmpty) +
+                    priorityMinimum;
+        }
+
+        /**
+         * Append a thread to the bucket for its effective priority. Each
+         * thread is stamped with its arrival order, which decides its place if
+         * it later moves to another bucket.
+         */
+        private void add(ThreadState threadState) {
+            Lib.assertTrue(threadState.queue == null);
+
+            threadState.queue = this;
+            threadState.sequence = ++arrivals;
+            threadState.bucket = threadState.getEffectivePriority();
+
+            int bucket = threadState.bucket - priorityMinimum;
+            threadState.next = null;
+            threadState.prev = tails[bucket];
+            if (tails[bucket] == null)
+                heads[bucket] = threadState;
+            else
+                tails[bucket].next = threadState;
+            tails[bucket] = threadState;
+            nonEmpty |= 1 << bucket;
+        }
+
+        /**
+         * Unlink a waiting thread from its bucket.
+         */
+        private void remove(ThreadState threadState) {
+            Lib.assertTrue(threadState.queue == this);
+
+            unlink(threadState);
+            threadState.queue = null;
+        }
+
+        private void unlink(ThreadState threadState) {
+            int bucket = threadState.bucket - priorityMinimum;
+
+            if (threadState.prev == null)
+                heads[bucket] = threadState.next;
+            else
+                threadState.prev.next = threadState.next;
+            if (threadState.next == null)
+                tails[bucket] = threadState.prev;
+            else
+                threadState.next.prev = threadState.prev;
+            threadState.prev = threadState.next = null;
+
+            if (heads[bucket] == null)
+                nonEmpty &= ~(1 << bucket);
+        }
+
+        /**
+         * Move a waiting thread whose effective priority has changed to its
+         * new bucket. Within a bucket threads stay in arrival order, so the
+         * thread is placed behind every thread that arrived before it; this is
+         * the only operation that walks a bucket, and only donation moves
+         * threads between buckets.
+         *
+         * @param threadState the thread whose effective priority changed.
+         */
+        protected void reposition(ThreadState threadState) {
+            if (threadState.queue != this ||
+                    threadState.bucket == threadState.getEffectivePriority())
+                return;
+
+            unlink(threadState);
+            threadState.bucket = threadState.getEffectivePriority();
+
+            int bucket = threadState.bucket - priorityMinimum;
+            ThreadState before = tails[bucket];
+            while (before != null && before.sequence > threadState.sequence)
+                before = before.prev;
+
+            threadState.prev = before;
+            threadState.next = (before == null) ? heads[bucket] : before.next;
+            if (before == null)
+                heads[bucket] = threadState;
+            else
+                before.next = threadState;
+            if (threadState.next == null)
+                tails[bucket] = threadState;
+            else
+                threadState.next.prev = threadState;
+            nonEmpty |= 1 << bucket;
         }
 
         public void print() {
@@ -188,14 +299,23 @@ public class PriorityScheduler extends Scheduler {
 
         //根据等待线程的有效优先级更改当前线程的有效优先级
         protected void changePriority() {
-            if (!transferPriority) return;
-            int max = priorityMinimum - 1;
-            for (ThreadState threadState : threadList) {
-                if (threadState.getEffectivePriority() > max) {
-                    max = threadState.getEffectivePriority();
-                }
+            if (!transferPriority || acquireThread == null) return;
+            int priority = highestPriority();
+            if (priority != donation) {
+                acquireThread.transferPriority(donation, priority);
+                donation = priority;
+            }
+        }
+
+        /**
+         * Take back whatever this queue donates to the thread holding it.
+         * Called when the holder gives up the queue.
+         */
+        protected void withdrawDonation() {
+            if (donation >= priorityMinimum) {
+                acquireThread.transferPriority(donation, priorityMinimum - 1);
+                donation = priorityMinimum - 1;
             }
-            acquireThread.transferPriority(this, max);
         }
 
         /**
@@ -204,8 +324,24 @@ public class PriorityScheduler extends Scheduler {
          */
         public boolean transferPriority;
 
-        // 等待线程列表
-        private final LinkedList<ThreadState> threadList = new LinkedList<>();
+        /**
+         * Waiting threads, in one FIFO bucket per effective priority. The
+         * threads of a bucket are linked through their <tt>prev</tt> and
+         * <tt>next</tt> fields, and bit <i>i</i> of <tt>nonEmpty</tt> is set
+         * while bucket <i>i</i> has any threads.
+         */
+        private final ThreadState[] heads =
+                new ThreadState[priorityMaximum - priorityMinimum + 1];
+        private final ThreadState[] tails =
+                new ThreadState[priorityMaximum - priorityMinimum + 1];
+        private int nonEmpty = 0;
+        private long arrivals = 0;
+        /**
+         * The priority this queue currently donates to
+         * <tt>acquireThread</tt>: the highest effective priority of its
+         * waiters, or <tt>priorityMinimum - 1</tt> if it donates nothing.
+         */
+        private int donation = priorityMinimum - 1;
         // 持有锁的线程
         private ThreadState acquireThread;
     }
@@ -261,14 +397,13 @@ public class PriorityScheduler extends Scheduler {
             this.priority = priority;
 
             // implement me
-            if (this.effectPriority < priority) {//改变有效优先级
-                changeEffectPriority(priority);
-            }
+            recomputeEffectPriority();
         }
 
         protected void changeEffectPriority(int priority) {
             this.effectPriority = priority;
             if (waitQueue != null) {//若队列里的有效优先级改变，则会改变当前线程的有效优先级
+                waitQueue.reposition(this);
                 waitQueue.changePriority();
             }
         }
@@ -308,16 +443,31 @@ public class PriorityScheduler extends Scheduler {
             }
         }
 
-        protected void transferPriority(PriorityQueue waitQueue, int priority) {
-            effectPriorities.put(waitQueue, priority);
+        /**
+         * Replace one donation this thread receives with another. A queue
+         * held by this thread calls this when the highest priority among its
+         * waiters changes; <tt>priorityMinimum - 1</tt> stands for no
+         * donation.
+         *
+         * @param oldPriority the priority the queue used to donate.
+         * @param newPriority the priority it donates now.
+         */
+        protected void transferPriority(int oldPriority, int newPriority) {
+            if (oldPriority >= priorityMinimum) {
+                int level = oldPriority - priorityMinimum;
+                if (--donations[level] == 0)
+                    donated &= ~(1 << level);
+            }
+            if (newPriority >= priorityMinimum) {
+                int level = newPriority - priorityMinimum;
+                donations[level]++;
+                donated |= 1 << level;
+            }
             recomputeEffectPriority();
         }
 
         protected void exit(PriorityQueue waitQueue) {
-//            Integer priority = effectPriorities.get(waitQueue);
-            Integer priority = effectPriorities.remove(waitQueue);
-            if (priority == null) return;
-            recomputeEffectPriority();
+            waitQueue.withdrawDonation();
         }
 
         /**
@@ -327,10 +477,9 @@ public class PriorityScheduler extends Scheduler {
          */
         protected void recomputeEffectPriority() {
             int max = this.priority;
-            for (Map.Entry<PriorityQueue, Integer> entry : effectPriorities.entrySet()) {
-                if (entry.getValue() > max) {
-                    max = entry.getValue();
-                }
+            if (donated != 0) {
+                max = Math.max(max, 31 - Integer.numberOfLeadingZeros(donated)
+                        + priorityMinimum);
             }
             if (max != effectPriority) {
                 changeEffectPriority(max);
@@ -347,7 +496,22 @@ public class PriorityScheduler extends Scheduler {
         protected int priority;
 
         protected int effectPriority;
-        private final HashMap<PriorityQueue, Integer> effectPriorities = new HashMap<>();
+        /**
+         * How many held queues donate each priority to this thread, and a
+         * bitmap of the priorities with a nonzero count.
+         */
+        private final int[] donations =
+                new int[priorityMaximum - priorityMinimum + 1];
+        private int donated = 0;
         private PriorityQueue waitQueue;
+
+        /**
+         * The queue whose buckets this thread is linked into, if any, with
+         * the bucket it is in, its neighbours there, and when it arrived.
+         */
+        private PriorityQueue queue;
+        private int bucket;
+        private long sequence;
+        private ThreadState prev, next;
     }
 }
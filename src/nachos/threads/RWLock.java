@@ -0,0 +1,294 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+
+/**
+ * A <tt>RWLock</tt> is a lock that any number of <i>readers</i> may hold at
+ * once, or one <i>writer</i> alone. There are four operations:
+ *
+ * <ul>
+ * <li><tt>acquireRead()</tt>: wait until no writer holds the lock, then hold
+ * it for reading.
+ * <li><tt>releaseRead()</tt>: stop holding the lock for reading.
+ * <li><tt>acquireWrite()</tt>: wait until nobody holds the lock, then hold it
+ * for writing.
+ * <li><tt>releaseWrite()</tt>: stop holding the lock for writing.
+ * </ul>
+ *
+ * <p>
+ * A writer-preferring lock, the default, lets no new reader in while a writer
+ * is waiting, so writers cannot be starved by a steady stream of readers;
+ * when it passes to a reader, the readers that were waiting before the first
+ * waiting writer come in with it. A reader-preferring lock lets readers in
+ * whenever no writer holds it, and passes to all waiting readers at once.
+ *
+ * <p>
+ * Readers and writers wait in a single queue from
+ * <tt>ThreadedKernel.scheduler.newThreadQueue(true)</tt>, so the scheduler
+ * chooses who gets the lock next, and waiting threads donate priority to the
+ * holder as they do for a <tt>Lock</tt>. While readers hold the lock, the
+ * queue's holder is a representative: at first the reader that first got the
+ * lock in this read phase, and whenever the representative releases it while
+ * others still hold it, the one of those that got it first. A queue has only one holder, so a
+ * low-priority reader holding the lock beside the representative gets no
+ * donation.
+ */
+public class RWLock {
+    /**
+     * Allocate a new writer-preferring lock. The lock will initially be
+     * <i>free</i>.
+     */
+    public RWLock() {
+        this(true);
+    }
+
+    /**
+     * Allocate a new lock. The lock will initially be <i>free</i>.
+     *
+     * @param writerPreference <tt>true</tt> if readers should wait while a
+     *                         writer is waiting, or <tt>false</tt> if they
+     *                         should only wait while a writer holds the lock.
+     */
+    public RWLock(boolean writerPreference) {
+        this.writerPreference = writerPreference;
+    }
+
+    /**
+     * Atomically wait until the current thread may read, and then hold this
+     * lock for reading. The current thread must not already hold this lock.
+     */
+    public void acquireRead() {
+        Lib.assertTrue(!isHeldByCurrentThread());
+
+        boolean intStatus = Machine.interrupt().disable();
+        KThread thread = KThread.currentThread();
+
+        if (writer == null &&
+                !(writerPreference && waitingWriters > 0)) {
+            if (readers.isEmpty()) {
+                waitQueue.acquire(thread);
+                representative = thread;
+            }
+            readers.add(thread);
+        } else {
+            waiting.add(thread);
+            waitingReaders.add(thread);
+            waitQueue.waitForAccess(thread);
+            KThread.sleep();
+        }
+
+        Lib.assertTrue(readers.contains(thread));
+
+        Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Stop holding this lock for reading. If the current thread is the last
+     * reader, the lock is handed to the next waiting thread; if it is the
+     * representative, waiting threads donate to another reader instead.
+     */
+    public void releaseRead() {
+        Lib.assertTrue(isReadHeldByCurrentThread());
+
+        boolean intStatus = Machine.interrupt().disable();
+        KThread thread = KThread.currentThread();
+
+        readers.remove(thread);
+        if (readers.isEmpty()) {
+            representative = null;
+            handOff();
+        } else if (thread == representative) {
+            representative = readers.iterator().next();
+            waitQueue.changeHolder(representative);
+        }
+
+        Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Atomically wait until nobody holds this lock, and then hold it for
+     * writing. The current thread must not already hold this lock.
+     */
+    public void acquireWrite() {
+        Lib.assertTrue(!isHeldByCurrentThread());
+
+        boolean intStatus = Machine.interrupt().disable();
+        KThread thread = KThread.currentThread();
+
+        if (writer == null && readers.isEmpty()) {
+            waitQueue.acquire(thread);
+            writer = thread;
+        } else {
+            waiting.add(thread);
+            waitingWriters++;
+            waitQueue.waitForAccess(thread);
+            KThread.sleep();
+        }
+
+        Lib.assertTrue(writer == thread);
+
+        Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Stop holding this lock for writing, and hand it to the next waiting
+     * thread.
+     */
+    public void releaseWrite() {
+        Lib.assertTrue(isWriteHeldByCurrentThread());
+
+        boolean intStatus = Machine.interrupt().disable();
+
+        writer = null;
+        handOff();
+
+        Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Test if the current thread holds this lock for reading.
+     *
+     * @return true if the current thread holds this lock for reading.
+     */
+    public boolean isReadHeldByCurrentThread() {
+        return readers.contains(KThread.currentThread());
+    }
+
+    /**
+     * Test if the current thread holds this lock for writing.
+     *
+     * @return true if the current thread holds this lock for writing.
+     */
+    public boolean isWriteHeldByCurrentThread() {
+        return (writer == KThread.currentThread());
+    }
+
+    /**
+     * Test if the current thread holds this lock, for reading or writing.
+     *
+     * @return true if the current thread holds this lock.
+     */
+    public boolean isHeldByCurrentThread() {
+        return isWriteHeldByCurrentThread() || isReadHeldByCurrentThread();
+    }
+
+    /**
+     * Give the free lock to the thread the scheduler picks from the queue. If
+     * that is a reader, the other waiting readers get it too: all of them, or
+     * if writers are preferred, those that arrived before the first waiting
+     * writer.
+     */
+    private void handOff() {
+        KThread next = waitQueue.nextThread();
+        if (next == null)
+            return;
+
+        waiting.remove(next);
+        if (!waitingReaders.remove(next)) {
+            waitingWriters--;
+            writer = next;
+            next.ready();
+            return;
+        }
+
+        readers.add(next);
+        representative = next;
+        next.ready();
+
+        for (Iterator<KThread> i = waiting.iterator(); i.hasNext(); ) {
+            KThread thread = i.next();
+            if (!waitingReaders.contains(thread)) {
+                if (writerPreference)
+                    break;
+                continue;
+            }
+
+            i.remove();
+            waitingReaders.remove(thread);
+            boolean removed = waitQueue.remove(thread);
+            Lib.assertTrue(removed);
+
+            readers.add(thread);
+            thread.ready();
+        }
+    }
+
+    /**
+     * Test if this module is working.
+     */
+    public static void selfTest() {
+        final RWLock lock = new RWLock();
+        final int[] inside = new int[2];    // readers, writers holding it
+        final int[] order = new int[6];
+        final int[] readersWith = new int[6];
+        final int[] entered = new int[1];
+
+        lock.acquireWrite();
+
+        // two readers, then a writer, then three more readers, all waiting
+        KThread[] threads = new KThread[6];
+        for (int i = 0; i < threads.length; i++) {
+            final int id = i;
+            final boolean reads = (id != 2);
+
+            threads[i] = new KThread(new Runnable() {
+                public void run() {
+                    if (reads)
+                        lock.acquireRead();
+                    else
+                        lock.acquireWrite();
+
+                    inside[reads ? 0 : 1]++;
+                    Lib.assertTrue(inside[1] == 0 ||
+                            (inside[1] == 1 && inside[0] == 0));
+                    order[entered[0]++] = id;
+                    readersWith[id] = inside[0];
+
+                    KThread.yield();
+
+                    inside[reads ? 0 : 1]--;
+                    if (reads)
+                        lock.releaseRead();
+                    else
+                        lock.releaseWrite();
+                }
+            }).setName((reads ? "reader " : "writer ") + i);
+            threads[i].fork();
+            KThread.yield();
+        }
+
+        lock.releaseWrite();
+        for (KThread thread : threads)
+            thread.join();
+
+        Lib.assertTrue(!lock.isHeldByCurrentThread());
+
+        // who gets the lock next is up to the scheduler; with a FIFO queue,
+        // the first two readers share it and the rest wait for the writer
+        if (ThreadedKernel.scheduler instanceof RoundRobinScheduler) {
+            Lib.assertTrue(readersWith[1] == 2 && order[2] == 2);
+            Lib.assertTrue(readersWith[5] == 3);
+        }
+    }
+
+    private final boolean writerPreference;
+
+    private KThread writer = null;
+    /** The threads holding the lock for reading, in the order they got it. */
+    private LinkedHashSet<KThread> readers = new LinkedHashSet<KThread>();
+    /** The reader holding <tt>waitQueue</tt>, while readers hold the lock. */
+    private KThread representative = null;
+
+    /** The threads in <tt>waitQueue</tt>, in the order they arrived. */
+    private LinkedList<KThread> waiting = new LinkedList<KThread>();
+    /** The readers in <tt>waiting</tt>; the other threads there write. */
+    private HashSet<KThread> waitingReaders = new HashSet<KThread>();
+    private int waitingWriters = 0;
+    private ThreadQueue waitQueue =
+            ThreadedKernel.scheduler.newThreadQueue(true);
+}
@@ -52,6 +52,31 @@ public abstract class Scheduler {
      */
     public abstract ThreadQueue newThreadQueue(boolean transferPriority);
 
+    /**
+     * Allocate the queue of threads ready to run. <tt>KThread</tt> calls this
+     * once, when the first thread is created. By default the ready queue is
+     * an ordinary queue that does not transfer priority; schedulers that
+     * treat the processor differently from other resources can return a
+     * queue of their own.
+     *
+     * @return a new ready queue.
+     */
+    public ThreadQueue newReadyQueue() {
+        return newThreadQueue(false);
+    }
+
+    /**
+     * Decide whether the current thread should give up the processor at this
+     * timer interrupt. Called by the alarm with interrupts disabled. By
+     * default every timer interrupt preempts the current thread.
+     *
+     * @return <tt>true</tt> if the current thread should yield.
+     */
+    public boolean shouldPreempt() {
+        Lib.assertTrue(Machine.interrupt().disabled());
+        return true;
+    }
+
     /**
      * Get the priority of the specified thread. Must be called with
      * interrupts disabled.
@@ -47,6 +47,37 @@ public class Semaphore {
         Machine.interrupt().restore(intStatus);
     }
 
+    /**
+     * Like <tt>P()</tt>, but give up if the semaphore stays zero for
+     * <i>timeout</i> ticks. The wait ends at the first timer interrupt after
+     * that time, as in <tt>Alarm.waitUntil()</tt>. If <i>timeout</i> is not
+     * positive, this never waits.
+     *
+     * @param timeout the maximum number of clock ticks to wait.
+     * @return <tt>true</tt> if the semaphore was decremented, or
+     * <tt>false</tt> if the time ran out.
+     */
+    public boolean P(long timeout) {
+        boolean intStatus = Machine.interrupt().disable();
+
+        boolean decremented = true;
+        if (value > 0) {
+            value--;
+        } else if (timeout <= 0) {
+            decremented = false;
+        } else {
+            waitQueue.waitForAccess(KThread.currentThread());
+            decremented = new TimedWait() {
+                boolean dequeue() {
+                    return waitQueue.remove(thread);
+                }
+            }.sleep(timeout);
+        }
+
+        Machine.interrupt().restore(intStatus);
+        return decremented;
+    }
+
     /**
      * Atomically increment this semaphore and wake up at most one other thread
      * sleeping on this semaphore.
@@ -0,0 +1,463 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.Arrays;
+
+/**
+ * A scheduler that shares the processor in proportion to tickets, without
+ * randomness.
+ *
+ * <p>
+ * Each thread has a <i>stride</i> inversely proportional to its tickets, and
+ * a <i>pass</i> that advances by one stride every time the ready queue
+ * dispatches the thread. The next thread to be dispatched is always the ready
+ * thread with the smallest pass, ties going to the thread that has been
+ * waiting longest. Other queues order their waiting threads the same way but
+ * leave passes alone, so a thread is not charged for being handed a lock or
+ * woken up, only for using the processor.
+ * Over any interval, a thread's share of dispatches differs from its share of
+ * tickets by at most one dispatch, where a lottery only gets this right on
+ * average.
+ *
+ * <p>
+ * Tickets are transferred through locks and joins the same way a lottery
+ * scheduler transfers them: a thread's effective tickets are its own tickets
+ * plus the tickets of every thread waiting for it.
+ */
+public class StrideScheduler extends Scheduler {
+    /**
+     * Allocate a new stride scheduler.
+     */
+    public StrideScheduler() {
+    }
+
+    /**
+     * Allocate a new stride thread queue.
+     *
+     * @param transferPriority <tt>true</tt> if this queue should
+     *                         transfer tickets from waiting threads
+     *                         to the owning thread.
+     * @return a new stride thread queue.
+     */
+    public ThreadQueue newThreadQueue(boolean transferPriority) {
+        return new StrideQueue(transferPriority, false);
+    }
+
+    /**
+     * Allocate the ready queue, the only queue that charges threads a stride
+     * when it dequeues them.
+     *
+     * @return a new ready queue.
+     */
+    public ThreadQueue newReadyQueue() {
+        return new StrideQueue(false, true);
+    }
+
+    public int getPriority(KThread thread) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        return getThreadState(thread).getPriority();
+    }
+
+    public int getEffectivePriority(KThread thread) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        return (int) Math.min(getThreadState(thread).getTickets(),
+                Integer.MAX_VALUE);
+    }
+
+    public void setPriority(KThread thread, int priority) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        Lib.assertTrue(priority >= priorityMinimum &&
+                priority <= priorityMaximum);
+
+        getThreadState(thread).setPriority(priority);
+    }
+
+    public boolean increasePriority() {
+        boolean intStatus = Machine.interrupt().disable();
+
+        KThread thread = KThread.currentThread();
+
+        int priority = getPriority(thread);
+        if (priority == priorityMaximum) {
+            Machine.interrupt().restore(intStatus);
+            return false;
+        }
+
+        setPriority(thread, priority + 1);
+
+        Machine.interrupt().restore(intStatus);
+        return true;
+    }
+
+    public boolean decreasePriority() {
+        boolean intStatus = Machine.interrupt().disable();
+
+        KThread thread = KThread.currentThread();
+
+        int priority = getPriority(thread);
+        if (priority == priorityMinimum) {
+            Machine.interrupt().restore(intStatus);
+            return false;
+        }
+
+        setPriority(thread, priority - 1);
+
+        Machine.interrupt().restore(intStatus);
+        return true;
+    }
+
+    /**
+     * The default number of tickets for a new thread.
+     */
+    public static final int priorityDefault = 1;
+    /**
+     * The minimum number of tickets that a thread can have.
+     */
+    public static final int priorityMinimum = 1;
+    /**
+     * The maximum number of tickets that a thread can have.
+     */
+    public static final int priorityMaximum = Integer.MAX_VALUE;
+
+    /**
+     * The stride of a thread holding a single ticket. Strides of threads with
+     * more tickets are this divided by their tickets, but never less than 1.
+     */
+    public static final long stride1 = 1L << 30;
+
+    /**
+     * Return the scheduling state of the specified thread.
+     *
+     * @param thread the thread whose scheduling state to return.
+     * @return the scheduling state of the specified thread.
+     */
+    protected ThreadState getThreadState(KThread thread) {
+        if (thread.schedulingState == null)
+            thread.schedulingState = new ThreadState(thread);
+
+        return (ThreadState) thread.schedulingState;
+    }
+
+    /**
+     * A <tt>ThreadQueue</tt> that keeps its waiting threads in a binary
+     * min-heap ordered by pass, so that waiting, dequeuing and changing a
+     * waiting thread's tickets all take O(log n).
+     */
+    protected class StrideQueue extends ThreadQueue {
+        StrideQueue(boolean transferPriority, boolean dispatching) {
+            this.transferPriority = transferPriority;
+            this.dispatching = dispatching;
+        }
+
+        public void waitForAccess(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            ThreadState threadState = getThreadState(thread);
+            Lib.assertTrue(threadState.waitQueue == null);
+
+            // a thread that has been away does not get to catch up
+            if (dispatching && threadState.pass < lastPass)
+                threadState.pass = lastPass;
+
+            threadState.waitQueue = this;
+            threadState.sequence = ++arrivals;
+
+            if (size == heap.length)
+                heap = Arrays.copyOf(heap, size * 2);
+            heap[size] = threadState;
+            threadState.index = size++;
+            siftUp(threadState.index);
+
+            donate(threadState.getTickets());
+        }
+
+        public void acquire(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            ThreadState threadState = getThreadState(thread);
+            Lib.assertTrue(threadState.waitQueue != this);
+
+            setHolder(threadState);
+        }
+
+        public KThread nextThread() {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            ThreadState threadState = pickNextThread();
+            if (threadState != null) {
+                remove(threadState);
+
+                if (dispatching) {
+                    lastPass = threadState.pass;
+                    threadState.pass += threadState.getStride();
+                }
+            }
+
+            setHolder(threadState);
+            return (threadState == null) ? null : threadState.thread;
+        }
+
+        public boolean remove(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            ThreadState threadState = getThreadState(thread);
+            if (threadState.waitQueue != this)
+                return false;
+
+            remove(threadState);
+            return true;
+        }
+
+        public void changeHolder(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            ThreadState threadState = getThreadState(thread);
+            Lib.assertTrue(threadState.waitQueue != this);
+
+            setHolder(threadState);
+        }
+
+        /**
+         * Return the next thread that <tt>nextThread()</tt> would return,
+         * without modifying the state of this queue.
+         *
+         * @return the next thread that <tt>nextThread()</tt> would
+         * return.
+         */
+        protected ThreadState pickNextThread() {
+            return (size == 0) ? null : heap[0];
+        }
+
+        public void print() {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            for (int i = 0; i < size; i++) {
+                System.out.print(" " + heap[i].thread + "(pass " +
+                        heap[i].pass + ")");
+            }
+            System.out.println();
+        }
+
+        /**
+         * Called when the tickets of a waiting thread change. As in
+         * Waltspurger's stride scheduling, in the ready queue the part of its
+         * current stride the thread still has to wait out is scaled to its
+         * new stride, so that a thread that is donated tickets moves up the
+         * queue at once.
+         */
+        private void update(ThreadState threadState, long oldTickets,
+                            long oldStride) {
+            long remaining = threadState.pass - lastPass;
+            if (dispatching && remaining > 0) {
+                long stride = threadState.getStride();
+                threadState.pass = lastPass +
+                        (long) ((double) remaining * stride / oldStride);
+            }
+
+            siftUp(threadState.index);
+            siftDown(threadState.index);
+
+            donate(threadState.getTickets() - oldTickets);
+        }
+
+        private void remove(ThreadState threadState) {
+            Lib.assertTrue(threadState.waitQueue == this);
+
+            int i = threadState.index;
+            size--;
+            if (i != size) {
+                heap[i] = heap[size];
+                heap[i].index = i;
+                siftUp(i);
+                siftDown(heap[i].index);
+            }
+            heap[size] = null;
+            threadState.waitQueue = null;
+
+            donate(-threadState.getTickets());
+        }
+
+        private void setHolder(ThreadState threadState) {
+            if (transferPriority && acquireThread != null)
+                acquireThread.donate(-total);
+
+            acquireThread = threadState;
+
+            if (transferPriority && acquireThread != null)
+                acquireThread.donate(total);
+        }
+
+        /**
+         * Add <tt>delta</tt> to the tickets of the waiting threads, passing
+         * the change on to the holder if this queue transfers tickets.
+         */
+        private void donate(long delta) {
+            if (delta == 0)
+                return;
+
+            total += delta;
+
+            if (transferPriority && acquireThread != null)
+                acquireThread.donate(delta);
+        }
+
+        private boolean before(ThreadState a, ThreadState b) {
+            if (a.pass != b.pass)
+                return a.pass < b.pass;
+            return a.sequence < b.sequence;
+        }
+
+        private void siftUp(int i) {
+            ThreadState threadState = heap[i];
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (!before(threadState, heap[parent]))
+                    break;
+                heap[i] = heap[parent];
+                heap[i].index = i;
+                i = parent;
+            }
+            heap[i] = threadState;
+            threadState.index = i;
+        }
+
+        private void siftDown(int i) {
+            ThreadState threadState = heap[i];
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size)
+                    break;
+                if (child + 1 < size && before(heap[child + 1], heap[child]))
+                    child++;
+                if (!before(heap[child], threadState))
+                    break;
+                heap[i] = heap[child];
+                heap[i].index = i;
+                i = child;
+            }
+            heap[i] = threadState;
+            threadState.index = i;
+        }
+
+        /**
+         * <tt>true</tt> if this queue should transfer tickets from waiting
+         * threads to the owning thread.
+         */
+        public boolean transferPriority;
+        /**
+         * <tt>true</tt> if this is the ready queue, which advances the pass
+         * of each thread it dequeues.
+         */
+        private final boolean dispatching;
+
+        private ThreadState[] heap = new ThreadState[8];
+        private int size = 0;
+        private long arrivals = 0;
+        /** The tickets of all waiting threads. */
+        private long total = 0;
+        /** The pass of the thread most recently dispatched. */
+        private long lastPass = 0;
+        private ThreadState acquireThread = null;
+    }
+
+    /**
+     * The scheduling state of a thread: its tickets, the tickets donated to
+     * it, its pass, and where it is waiting.
+     *
+     * @see KThread#schedulingState
+     */
+    protected class ThreadState {
+        /**
+         * Allocate a new <tt>ThreadState</tt> object and associate it with the
+         * specified thread.
+         *
+         * @param thread the thread this state belongs to.
+         */
+        public ThreadState(KThread thread) {
+            this.thread = thread;
+
+            setPriority(priorityDefault);
+        }
+
+        /**
+         * Return the tickets of the associated thread.
+         *
+         * @return the tickets of the associated thread.
+         */
+        public int getPriority() {
+            return priority;
+        }
+
+        /**
+         * Return the effective tickets of the associated thread: its own plus
+         * those donated to it.
+         *
+         * @return the effective tickets of the associated thread.
+         */
+        public long getTickets() {
+            return priority + donated;
+        }
+
+        /**
+         * Return the amount by which the pass of the associated thread
+         * advances each time it is dequeued.
+         *
+         * @return the stride of the associated thread.
+         */
+        public long getStride() {
+            return Math.max(stride1 / getTickets(), 1);
+        }
+
+        /**
+         * Set the tickets of the associated thread to the specified value.
+         *
+         * @param priority the new number of tickets.
+         */
+        public void setPriority(int priority) {
+            if (this.priority == priority)
+                return;
+
+            long oldTickets = getTickets();
+            long oldStride = (oldTickets > 0) ? getStride() : stride1;
+            this.priority = priority;
+            ticketsChanged(oldTickets, oldStride);
+        }
+
+        /**
+         * Add to the tickets donated to this thread by the queues it holds.
+         *
+         * @param delta the change in donated tickets.
+         */
+        protected void donate(long delta) {
+            long oldTickets = getTickets();
+            long oldStride = getStride();
+            donated += delta;
+            ticketsChanged(oldTickets, oldStride);
+        }
+
+        private void ticketsChanged(long oldTickets, long oldStride) {
+            if (waitQueue != null)
+                waitQueue.update(this, oldTickets, oldStride);
+        }
+
+        /**
+         * The thread with which this object is associated.
+         */
+        protected KThread thread;
+        /**
+         * The tickets of the associated thread.
+         */
+        protected int priority;
+
+        private long donated = 0;
+        private long pass = 0;
+        /** The queue this thread is waiting in, its heap index and arrival. */
+        private StrideQueue waitQueue = null;
+        private int index;
+        private long sequence;
+    }
+}
@@ -1,57 +1,169 @@
 package nachos.threads;
 
-import java.util.LinkedList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 import nachos.machine.*;
 import nachos.threads.*;
 
 /**
- * A synchronized queue.
+ * A synchronized queue, optionally bounded.
+ *
+ * <p>
+ * A bounded queue holds at most <i>capacity</i> elements: <tt>add()</tt>
+ * waits for room, and <tt>offer()</tt> gives up instead, so a fast producer
+ * cannot grow it without limit. <tt>removeUpTo()</tt> takes out a batch of
+ * elements under one acquisition of the lock.
+ *
+ * @param	<T>	the type of the elements.
  */
-public class SynchList {
+public class SynchList<T> {
     /**
-     * Allocate a new synchronized queue.
+     * Allocate a new synchronized queue with no bound on its size.
      */
     public SynchList() {
-	list = new LinkedList<Object>();
+	this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Allocate a new synchronized queue that holds at most <i>capacity</i>
+     * elements.
+     *
+     * @param	capacity	the most elements the queue can hold.
+     */
+    public SynchList(int capacity) {
+	Lib.assertTrue(capacity > 0);
+
+	this.capacity = capacity;
+	list = new ArrayDeque<T>();
 	lock = new Lock();
 	listEmpty = new Condition(lock);
+	listFull = new Condition(lock);
     }
 
     /**
-     * Add the specified object to the end of the queue. If another thread is
-     * waiting in <tt>removeFirst()</tt>, it is woken up.
+     * Add the specified object to the end of the queue, waiting until there
+     * is room if the queue is full. If another thread is waiting in
+     * <tt>removeFirst()</tt> or <tt>removeUpTo()</tt>, it is woken up.
      *
      * @param	o	the object to add. Must not be <tt>null</tt>.
      */
-    public void add(Object o) {
+    public void add(T o) {
 	Lib.assertTrue(o != null);
 	
 	lock.acquire();
+	while (list.size() == capacity)
+	    listFull.sleep();
 	list.add(o);
 	listEmpty.wake();
 	lock.release();
     }
 
+    /**
+     * Add the specified object to the end of the queue if there is room,
+     * without waiting.
+     *
+     * @param	o	the object to add. Must not be <tt>null</tt>.
+     * @return	<tt>true</tt> if the object was added, or <tt>false</tt> if
+     *		the queue is full.
+     */
+    public boolean offer(T o) {
+	Lib.assertTrue(o != null);
+
+	lock.acquire();
+	boolean added = (list.size() < capacity);
+	if (added) {
+	    list.add(o);
+	    listEmpty.wake();
+	}
+	lock.release();
+
+	return added;
+    }
+
     /**
      * Remove an object from the front of the queue, blocking until the queue
      * is non-empty if necessary.
      *
      * @return	the element removed from the front of the queue.
      */
-    public Object removeFirst() {
-	Object o;
+    public T removeFirst() {
+	T o;
 
 	lock.acquire();
 	while (list.isEmpty())
 	    listEmpty.sleep();
 	o = list.removeFirst();
+	listFull.wake();
+	lock.release();
+
+	return o;
+    }
+
+    /**
+     * Remove an object from the front of the queue if there is one, without
+     * waiting.
+     *
+     * @return	the element removed from the front of the queue, or
+     *		<tt>null</tt> if the queue is empty.
+     */
+    public T poll() {
+	T o;
+
+	lock.acquire();
+	o = list.pollFirst();
+	if (o != null)
+	    listFull.wake();
 	lock.release();
 
 	return o;
     }
 
+    /**
+     * Remove up to <i>n</i> objects from the front of the queue, blocking
+     * until the queue is non-empty if necessary, but not waiting for more
+     * than are there.
+     *
+     * @param	n	the most elements to remove. Must be positive.
+     * @return	the elements removed, in order; at least one.
+     */
+    public List<T> removeUpTo(int n) {
+	Lib.assertTrue(n > 0);
+
+	lock.acquire();
+	while (list.isEmpty())
+	    listEmpty.sleep();
+
+	List<T> removed = new ArrayList<T>(Math.min(n, list.size()));
+	while (removed.size() < n && !list.isEmpty())
+	    removed.add(list.removeFirst());
+
+	if (removed.size() == 1)
+	    listFull.wake();
+	else
+	    listFull.wakeAll();
+	lock.release();
+
+	return removed;
+    }
+
+    /**
+     * Return the number of objects in the queue.
+     *
+     * @return	the number of elements in the queue.
+     */
+    public int size() {
+	int size;
+
+	lock.acquire();
+	size = list.size();
+	lock.release();
+
+	return size;
+    }
+
     private static class PingTest implements Runnable {
-	PingTest(SynchList ping, SynchList pong) {
+	PingTest(SynchList<Integer> ping, SynchList<Integer> pong) {
 	    this.ping = ping;
 	    this.pong = pong;
 	}
@@ -61,16 +173,16 @@ public class SynchList {
 		pong.add(ping.removeFirst());
 	}
 
-	private SynchList ping;
-	private SynchList pong;
+	private SynchList<Integer> ping;
+	private SynchList<Integer> pong;
     }
 
     /**
      * Test that this module is working.
      */
     public static void selfTest() {
-	SynchList ping = new SynchList();
-	SynchList pong = new SynchList();
+	SynchList<Integer> ping = new SynchList<Integer>();
+	SynchList<Integer> pong = new SynchList<Integer>();
 
 	new KThread(new PingTest(ping, pong)).setName("ping").fork();
 
@@ -79,10 +191,33 @@ public class SynchList {
 	    ping.add(o);
 	    Lib.assertTrue(pong.removeFirst() == o);
 	}
+
+	final SynchList<Integer> bounded = new SynchList<Integer>(2);
+	Lib.assertTrue(bounded.poll() == null);
+	Lib.assertTrue(bounded.offer(0) && bounded.offer(1) && !bounded.offer(2));
+
+	KThread filler = new KThread(new Runnable() {
+		public void run() {
+		    for (int i=2; i<6; i++)
+			bounded.add(i);
+		}
+	    });
+	filler.setName("filler").fork();
+
+	int next = 0;
+	while (next < 6) {
+	    List<Integer> batch = bounded.removeUpTo(3);
+	    Lib.assertTrue(batch.size() <= 2);
+	    for (Integer o : batch)
+		Lib.assertTrue(o == next++);
+	}
+	filler.join();
+	Lib.assertTrue(bounded.size() == 0);
     }
 
-    private LinkedList<Object> list;
+    private final int capacity;
+    private ArrayDeque<T> list;
     private Lock lock;
     private Condition listEmpty;
+    private Condition listFull;
 }
-
@@ -0,0 +1,181 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.LinkedHashSet;
+
+/**
+ * Scheduling accounting for kernel threads, kept when
+ * <tt>KThread.accounting</tt> is set. <tt>KThread</tt> counts each thread's
+ * run time, dispatches, context switches and time spent ready; this class
+ * adds a histogram of ready-queue waits and the host time spent inside the
+ * scheduler's ready queue, and prints them all when the kernel terminates.
+ * It keeps only the threads still alive; each finished thread is folded into
+ * one row of totals, so that it can be garbage collected. The ready-queue
+ * time is also kept if <tt>KThread.timeReadyQueue()</tt> has been called.
+ */
+final class ThreadAccounting {
+    private ThreadAccounting() {
+    }
+
+    static void threadCreated(KThread thread) {
+        threads.add(thread);
+    }
+
+    /**
+     * Add the counts of a thread that has finished and run for the last time
+     * to the finished threads' totals, and stop keeping it.
+     */
+    static void threadFinished(KThread thread) {
+        if (!threads.remove(thread))
+            return;
+
+        numFinished++;
+        finishedRunTicks += thread.getRunTicks();
+        finishedReadyWaitTicks += thread.getReadyWaitTicks();
+        finishedDispatches += thread.getNumDispatches();
+        finishedVoluntarySwitches += thread.getNumVoluntarySwitches();
+        finishedInvoluntarySwitches += thread.getNumInvoluntarySwitches();
+    }
+
+    /**
+     * Record a thread that waited <i>ticks</i> in the ready queue before being
+     * dispatched.
+     */
+    static void waited(long ticks) {
+        int bucket = 0;
+        while (bucket < waitHistogram.length - 1 && (1L << bucket) <= ticks)
+            bucket++;
+        waitHistogram[bucket]++;
+
+        numWaits++;
+        maxWait = Math.max(maxWait, ticks);
+    }
+
+    static void switched(boolean involuntary) {
+        if (involuntary)
+            numInvoluntarySwitches++;
+        else
+            numVoluntarySwitches++;
+    }
+
+    /** Record the host time taken by one <tt>waitForAccess()</tt>. */
+    static void enqueued(long nanoseconds) {
+        numEnqueues++;
+        enqueueNanoseconds += nanoseconds;
+    }
+
+    /** Record the host time taken by one <tt>nextThread()</tt>. */
+    static void dequeued(long nanoseconds) {
+        numDequeues++;
+        dequeueNanoseconds += nanoseconds;
+    }
+
+    /**
+     * Return the host time spent so far in the ready queue's
+     * <tt>waitForAccess()</tt> and <tt>nextThread()</tt>.
+     *
+     * @return the time in nanoseconds.
+     */
+    static long getReadyQueueNanoseconds() {
+        return enqueueNanoseconds + dequeueNanoseconds;
+    }
+
+    /**
+     * Print the accounting of every live thread and of the finished threads
+     * together, followed by the totals.
+     */
+    static void print() {
+        System.out.println("Thread accounting:");
+        System.out.println(String.format("%-28s %10s %10s %8s %8s %8s",
+                "thread", "run", "ready", "runs", "vol", "invol"));
+        for (KThread thread : threads) {
+            String name = thread.toString();
+            if (name.length() > 28)
+                name = name.substring(0, 28);
+            System.out.println(String.format(
+                    "%-28s %10d %10d %8d %8d %8d",
+                    name, thread.getRunTicks(),
+                    thread.getReadyWaitTicks(), thread.getNumDispatches(),
+                    thread.getNumVoluntarySwitches(),
+                    thread.getNumInvoluntarySwitches()));
+        }
+        if (numFinished > 0) {
+            System.out.println(String.format(
+                    "%-28s %10d %10d %8d %8d %8d",
+                    "(" + numFinished + " finished)", finishedRunTicks,
+                    finishedReadyWaitTicks, finishedDispatches,
+                    finishedVoluntarySwitches, finishedInvoluntarySwitches));
+        }
+
+        System.out.println("Context switches: voluntary "
+                + numVoluntarySwitches + ", involuntary "
+                + numInvoluntarySwitches);
+
+        System.out.print("Ready wait: " + numWaits + " waits, max " + maxWait
+                + " ticks, p50 <" + percentile(0.50)
+                + ", p99 <" + percentile(0.99) + "\n  histogram:");
+        for (int i = 0; i < waitHistogram.length; i++) {
+            if (waitHistogram[i] > 0)
+                System.out.print(" <" + bucketLimit(i) + ":" + waitHistogram[i]);
+        }
+        System.out.println();
+
+        System.out.println("Ready queue (" +
+                ThreadedKernel.scheduler.getClass().getName() + "): "
+                + numEnqueues + " enqueues, "
+                + average(enqueueNanoseconds, numEnqueues) + " ns each; "
+                + numDequeues + " dequeues, "
+                + average(dequeueNanoseconds, numDequeues) + " ns each");
+    }
+
+    /**
+     * Return the upper limit, in ticks, of the histogram bucket below which
+     * the given fraction of waits fall.
+     */
+    private static String percentile(double fraction) {
+        long seen = 0;
+        for (int i = 0; i < waitHistogram.length; i++) {
+            seen += waitHistogram[i];
+            if (seen >= fraction * numWaits)
+                return bucketLimit(i);
+        }
+        return bucketLimit(waitHistogram.length - 1);
+    }
+
+    private static String bucketLimit(int bucket) {
+        if (bucket == waitHistogram.length - 1)
+            return "inf";
+        return Long.toString(1L << bucket);
+    }
+
+    private static long average(long total, long count) {
+        return (count == 0) ? 0 : total / count;
+    }
+
+    /** The threads not yet finished, in the order they were created. */
+    private static LinkedHashSet<KThread> threads = new LinkedHashSet<KThread>();
+
+    private static long numFinished = 0;
+    private static long finishedRunTicks = 0;
+    private static long finishedReadyWaitTicks = 0;
+    private static long finishedDispatches = 0;
+    private static long finishedVoluntarySwitches = 0;
+    private static long finishedInvoluntarySwitches = 0;
+
+    /**
+     * Bucket <i>i</i> counts waits of less than 2<sup><i>i</i></sup> ticks
+     * and at least half that; the last bucket takes everything longer.
+     */
+    private static long[] waitHistogram = new long[32];
+    private static long numWaits = 0;
+    private static long maxWait = 0;
+
+    private static long numVoluntarySwitches = 0;
+    private static long numInvoluntarySwitches = 0;
+
+    private static long numEnqueues = 0;
+    private static long enqueueNanoseconds = 0;
+    private static long numDequeues = 0;
+    private static long dequeueNanoseconds = 0;
+}
@@ -91,6 +91,34 @@ public abstract class ThreadQueue {
      */
     public abstract void acquire(KThread thread);
 
+    /**
+     * Take the specified thread out of this queue without giving it access,
+     * for instance because it has stopped waiting after a timeout. If this
+     * queue transfers priority, the thread no longer donates to the owner.
+     *
+     * @param	thread	the thread to remove.
+     * @return	<tt>true</tt> if the thread was waiting in this queue, or
+     *		<tt>false</tt> if it was not.
+     */
+    public abstract boolean remove(KThread thread);
+
+    /**
+     * Make the specified thread the holder of this queue in place of the
+     * current holder, without either of them waiting. This is only for
+     * resources several threads can hold at once, such as a lock held for
+     * reading: when the thread that waiting threads donate priority to gives
+     * up access while others keep it, it names one of them here.
+     *
+     * <p>
+     * Queues that do not keep track of their holder need not override this,
+     * as it does nothing by default.
+     *
+     * @param	thread	a thread that already has access, but is not the
+     *			holder.
+     */
+    public void changeHolder(KThread thread) {
+    }
+
     /**
      * Print out all the threads waiting for access, in no particular order.
      */
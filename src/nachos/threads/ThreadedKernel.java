@@ -66,6 +66,9 @@ public class ThreadedKernel extends Kernel {
      * Terminate this kernel. Never returns.
      */
     public void terminate() {
+        if (KThread.isAccounting())
+            ThreadAccounting.print();
+
         Machine.halt();
     }
 
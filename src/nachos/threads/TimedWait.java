@@ -0,0 +1,59 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A wait with a deadline, for the current thread, which is already waiting
+ * in some queue and about to sleep. If the deadline passes first, the alarm
+ * takes the thread out of that queue and wakes it; otherwise the deadline is
+ * cancelled when the thread is woken the usual way.
+ *
+ * <p>
+ * Subclasses say how to take the thread out of the queue. All of this runs
+ * with interrupts disabled, so the thread is woken exactly once.
+ */
+abstract class TimedWait implements Runnable {
+    TimedWait() {
+        thread = KThread.currentThread();
+    }
+
+    /**
+     * Take the waiting thread out of the queue it waits in.
+     *
+     * @return <tt>true</tt> if it was still waiting there, or <tt>false</tt>
+     * if it has already been chosen to be woken.
+     */
+    abstract boolean dequeue();
+
+    /**
+     * Sleep until woken or until <i>x</i> ticks have passed. Interrupts must
+     * be disabled.
+     *
+     * @param x the minimum number of clock ticks to wait.
+     * @return <tt>true</tt> if the thread was woken, or <tt>false</tt> if the
+     * time ran out.
+     */
+    boolean sleep(long x) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        Alarm.Timeout timeout = ThreadedKernel.alarm.schedule(x, this);
+        KThread.sleep();
+        timeout.cancel();
+
+        return !timedOut;
+    }
+
+    /**
+     * Called by the alarm when the time runs out.
+     */
+    public void run() {
+        if (dequeue()) {
+            timedOut = true;
+            thread.ready();
+        }
+    }
+
+    /** The waiting thread. */
+    final KThread thread;
+    private boolean timedOut = false;
+}